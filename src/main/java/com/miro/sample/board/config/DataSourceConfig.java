@@ -9,7 +9,7 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 import org.springframework.data.jpa.repository.config.EnableJpaAuditing;
 
-@Profile("h2")
+@Profile({"h2", "tiered"})
 @Configuration
 @EnableJpaAuditing
 public class DataSourceConfig {
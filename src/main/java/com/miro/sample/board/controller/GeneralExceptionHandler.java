@@ -1,7 +1,10 @@
 package com.miro.sample.board.controller;
 
 import com.miro.sample.board.exceptions.ApiError;
+import com.miro.sample.board.exceptions.BoardNotDurableException;
+import com.miro.sample.board.exceptions.InvalidCursorException;
 import com.miro.sample.board.exceptions.NotFoundException;
+import com.miro.sample.board.exceptions.RevisionExpiredException;
 import jakarta.validation.ConstraintViolationException;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
@@ -94,6 +97,51 @@ public class GeneralExceptionHandler extends ResponseEntityExceptionHandler {
             null, exception));
     }
 
+    /**
+     * Handle invalid cursor exception response entity.
+     *
+     * @param exception the exception
+     * @param request   the request
+     * @return the response entity
+     */
+    @ExceptionHandler({InvalidCursorException.class})
+    public ResponseEntity<Object> handleInvalidCursorException(
+        InvalidCursorException exception, WebRequest request) {
+        String message = "Cursor is invalid";
+        return buildResponseEntity(new ApiError(request, HttpStatus.BAD_REQUEST, message,
+            null, exception));
+    }
+
+    /**
+     * Handle revision expired exception response entity.
+     *
+     * @param exception the exception
+     * @param request   the request
+     * @return the response entity
+     */
+    @ExceptionHandler({RevisionExpiredException.class})
+    public ResponseEntity<Object> handleRevisionExpiredException(
+        RevisionExpiredException exception, WebRequest request) {
+        String message = "Revision is no longer available, load the board again";
+        return buildResponseEntity(new ApiError(request, HttpStatus.GONE, message,
+            null, exception));
+    }
+
+    /**
+     * Handle board not durable exception response entity.
+     *
+     * @param exception the exception
+     * @param request   the request
+     * @return the response entity
+     */
+    @ExceptionHandler({BoardNotDurableException.class})
+    public ResponseEntity<Object> handleBoardNotDurableException(
+        BoardNotDurableException exception, WebRequest request) {
+        String message = "Boards are kept in memory only, they can not be written while the journal is enabled";
+        return buildResponseEntity(new ApiError(request, HttpStatus.CONFLICT, message,
+            null, exception));
+    }
+
     /**
      * A general handler for all uncaught exceptions.
      *
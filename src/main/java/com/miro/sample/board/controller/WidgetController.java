@@ -1,61 +1,136 @@
 package com.miro.sample.board.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.miro.sample.board.dto.PointDto;
+import com.miro.sample.board.dto.RevisionCursor;
+import com.miro.sample.board.dto.WidgetChangeDto;
+import com.miro.sample.board.dto.WidgetChangeType;
+import com.miro.sample.board.dto.WidgetChangesDto;
+import com.miro.sample.board.dto.WidgetCursor;
+import com.miro.sample.board.dto.WidgetCursorPageDto;
 import com.miro.sample.board.dto.WidgetDto;
+import com.miro.sample.board.dto.WidgetHitDto;
+import com.miro.sample.board.dto.WidgetOperationDto;
+import com.miro.sample.board.dto.WidgetOperationResultDto;
 import com.miro.sample.board.exceptions.NotFoundException;
 import com.miro.sample.board.mapper.WidgetMapper;
 import com.miro.sample.board.model.Widget;
+import com.miro.sample.board.service.BoardRegistry;
+import com.miro.sample.board.service.WidgetChange;
+import com.miro.sample.board.service.WidgetChangeFeed;
+import com.miro.sample.board.service.WidgetOperation;
+import com.miro.sample.board.service.WidgetOperationResult;
 import com.miro.sample.board.service.WidgetService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Size;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.MimeTypeUtils;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
 
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON_VALUE;
+import static org.springframework.http.MediaType.TEXT_EVENT_STREAM_VALUE;
 
 
+/**
+ * The Widget API. JSON is the default, a client which sends Accept: application/x-jackson-smile or application/cbor
+ * gets the same documents in a binary format, without the text formatting of numbers and dates. Smile writes a field
+ * name once and refers back to it after, so a list of widgets is close to packed records.
+ */
 @Slf4j
 @RestController
-@RequestMapping(path = {"api/v1/widgets"}, produces = MediaType.APPLICATION_JSON_VALUE)
+@RequestMapping(path = {"api/v1/widgets", "api/v1/boards/{boardId}/widgets"},
+    produces = {MediaType.APPLICATION_JSON_VALUE, WidgetController.APPLICATION_SMILE_VALUE, MediaType.APPLICATION_CBOR_VALUE})
 @Validated
 public class WidgetController {
 
+    /**
+     * The media type of Smile, binary JSON.
+     */
+    public static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+
     private static final String ID = "widgetId";
+    private static final String BOARD_ID = "boardId";
+    private static final String BOARD_ID_PATTERN = "[A-Za-z0-9_-]{1,64}";
+    private static final String LIMIT = "limit";
+    private static final String AT = "/at";
+    private static final String BATCH = "/batch";
+    private static final String EXPORT = "/export";
+    private static final int EXPORT_BUFFER_SIZE = 64 * 1024;
+    private static final String STREAM = "/stream";
+    private static final long STREAM_NO_TIMEOUT = 0L;
+    private static final String CHANGES = "/changes";
+    private static final String NOT_MODIFIED_DESCRIPTION = "Not modified since the ETag of If-None-Match";
+    private static final int MAX_LIMIT = 1000;
     private static final String NEW_WIDGET_LOG = "New widget was created id:{}";
     private static final String WIDGET_UPDATED_LOG = "Widget:{} was updated";
+    private static final List<MediaType> FORMATS = List.of(MediaType.APPLICATION_JSON,
+        MediaType.parseMediaType(APPLICATION_SMILE_VALUE), MediaType.APPLICATION_CBOR);
 
     private WidgetService service;
+    private BoardRegistry boards;
     private WidgetMapper mapper;
+    private ObjectMapper objectMapper;
 
     @Autowired
     public void setMapper(WidgetMapper mapper) {
         this.mapper = mapper;
     }
 
+    @Autowired
+    public void setObjectMapper(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
     @Autowired
     public void setService(WidgetService service) {
         this.service = service;
     }
 
+    @Autowired(required = false)
+    public void setBoards(BoardRegistry boards) {
+        this.boards = boards;
+    }
+
     @Operation(summary = "Create a new widget")
     @ApiResponse(responseCode = "201", description = "widget is created",
         content = {@Content(mediaType = APPLICATION_JSON_VALUE, schema = @Schema(implementation = WidgetDto.class))})
     @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<WidgetDto> create(@Valid @RequestBody WidgetDto widgetDto) {
+    public ResponseEntity<WidgetDto> create(@PathVariable(value = BOARD_ID, required = false) @Pattern(regexp = BOARD_ID_PATTERN) String boardId,
+                                            @Valid @RequestBody WidgetDto widgetDto) {
         Widget widget = mapper.dtoToWidgetCreate(widgetDto);
-        final Widget createdWidget = service.create(widget);
+        final Widget createdWidget = board(boardId).create(widget);
         log.info(NEW_WIDGET_LOG, createdWidget.toString());
         return ResponseEntity.status(HttpStatus.CREATED).body(mapper.widgetToDto(createdWidget));
     }
@@ -65,9 +140,11 @@ public class WidgetController {
         content = {@Content(mediaType = APPLICATION_JSON_VALUE)}),
         @ApiResponse(responseCode = "404", description = "Widget not found", content = @Content)})
     @DeleteMapping(path = "/{widgetId}")
-    public ResponseEntity<Void> delete(@PathVariable(value = ID) @Min(1) Long widgetId) {
-        if (service.exist(widgetId)) {
-            service.delete(widgetId);
+    public ResponseEntity<Void> delete(@PathVariable(value = BOARD_ID, required = false) @Pattern(regexp = BOARD_ID_PATTERN) String boardId,
+                                       @PathVariable(value = ID) @Min(1) Long widgetId) {
+        WidgetService board = boardToRead(boardId);
+        if (board.exist(widgetId)) {
+            board.delete(widgetId);
             final HttpHeaders httpHeaders = new HttpHeaders();
             httpHeaders.setContentType(MediaType.APPLICATION_JSON);
             return ResponseEntity.noContent().headers(httpHeaders).build();
@@ -81,10 +158,11 @@ public class WidgetController {
         @ApiResponse(responseCode = "404", description = "Widget not found", content = @Content)})
     @PutMapping(path = "/{widgetId}", consumes = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<WidgetDto> update(
+        @PathVariable(value = BOARD_ID, required = false) @Pattern(regexp = BOARD_ID_PATTERN) String boardId,
         @PathVariable(value = ID) @Min(1) Long id,
         @Valid @RequestBody WidgetDto widgetDto) {
         Widget widget = mapper.dtoToWidgetUpdate(widgetDto);
-        Widget updatedWidget = service.update(id, widget);
+        Widget updatedWidget = boardToRead(boardId).update(id, widget);
         log.info(WIDGET_UPDATED_LOG, updatedWidget.toString());
         return ResponseEntity.ok(mapper.widgetToDto(updatedWidget));
     }
@@ -92,23 +170,304 @@ public class WidgetController {
     @Operation(summary = "Get an widget by its id")
     @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "Found the Widget",
         content = {@Content(mediaType = APPLICATION_JSON_VALUE, schema = @Schema(implementation = WidgetDto.class))}),
+        @ApiResponse(responseCode = "304", description = NOT_MODIFIED_DESCRIPTION, content = @Content),
         @ApiResponse(responseCode = "404", description = "Widget not found", content = @Content)})
     @GetMapping(path = "/{widgetId}")
-    public ResponseEntity<WidgetDto> getWidget(@PathVariable(value = ID) @Min(1) Long widgetId) {
-        final Widget widget = service.findById(widgetId).orElseThrow(NotFoundException::new);
+    public ResponseEntity<WidgetDto> getWidget(@PathVariable(value = BOARD_ID, required = false) @Pattern(regexp = BOARD_ID_PATTERN) String boardId,
+                                               @PathVariable(value = ID) @Min(1) Long widgetId,
+                                               ServletWebRequest request) {
+        final Widget widget = boardToRead(boardId).findById(widgetId).orElseThrow(NotFoundException::new);
+        if (notModified(request, widgetTag(widget))) {
+            return null;
+        }
         return ResponseEntity.ok(mapper.widgetToDto(widget));
     }
 
     @Operation(summary = "Returns a list of widgets")
-    @ApiResponse(responseCode = "200", description = "Returns a list of widgets",
-        content = {@Content(mediaType = APPLICATION_JSON_VALUE, schema = @Schema(implementation = WidgetDto.class))})
+    @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "Returns a list of widgets",
+        content = {@Content(mediaType = APPLICATION_JSON_VALUE, schema = @Schema(implementation = WidgetDto.class))}),
+        @ApiResponse(responseCode = "304", description = NOT_MODIFIED_DESCRIPTION, content = @Content),
+        @ApiResponse(responseCode = "400", description = "Page or size is out of range", content = @Content)})
     @GetMapping
-    public ResponseEntity<Page<WidgetDto>> getWidgets(@RequestParam(defaultValue = "0") int page,
-                                                      @RequestParam(defaultValue = "10") Integer size) {
-
-        Page<Widget> all = service.findAll(page, size);
+    public ResponseEntity<Page<WidgetDto>> getWidgets(@PathVariable(value = BOARD_ID, required = false) @Pattern(regexp = BOARD_ID_PATTERN) String boardId,
+                                                      @RequestParam(defaultValue = "0") @Min(0) int page,
+                                                      @RequestParam(defaultValue = "10") @Min(1) @Max(MAX_LIMIT) Integer size,
+                                                      ServletWebRequest request) {
+        WidgetService board = boardToRead(boardId);
+        if (notModified(request, boardTag(board))) {
+            return null;
+        }
+        Page<Widget> all = board.findAll(page, size);
         Page<WidgetDto> resultPage = new PageImpl<>(mapper.widgetToDtoList(all.getContent()), all.getPageable(), all.getTotalElements());
 
         return ResponseEntity.status(HttpStatus.OK).body(resultPage);
     }
-}
\ No newline at end of file
+
+    @Operation(summary = "Returns the widgets after a cursor in z order")
+    @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "Returns a list of widgets and the cursor of next page",
+        content = {@Content(mediaType = APPLICATION_JSON_VALUE, schema = @Schema(implementation = WidgetCursorPageDto.class))}),
+        @ApiResponse(responseCode = "304", description = NOT_MODIFIED_DESCRIPTION, content = @Content),
+        @ApiResponse(responseCode = "400", description = "Cursor is invalid", content = @Content)})
+    @GetMapping(params = LIMIT)
+    public ResponseEntity<WidgetCursorPageDto> getWidgetsAfter(@PathVariable(value = BOARD_ID, required = false) @Pattern(regexp = BOARD_ID_PATTERN) String boardId,
+                                                               @RequestParam(required = false) String after,
+                                                               @RequestParam(LIMIT) @Min(1) @Max(MAX_LIMIT) int limit,
+                                                               ServletWebRequest request) {
+        WidgetService board = boardToRead(boardId);
+        if (notModified(request, boardTag(board))) {
+            return null;
+        }
+        WidgetCursor cursor = after == null ? null : WidgetCursor.decode(after);
+        List<Widget> widgets = cursor == null
+            ? board.findAfter(null, null, limit)
+            : board.findAfter(cursor.getZ(), cursor.getId(), limit);
+
+        String next = null;
+        if (widgets.size() == limit) {
+            Widget last = widgets.get(widgets.size() - 1);
+            next = new WidgetCursor(last.getZ(), last.getId()).encode();
+        }
+        return ResponseEntity.ok(new WidgetCursorPageDto(mapper.widgetToDtoList(widgets), next));
+    }
+
+    @Operation(summary = "Export all widgets in z order as newline delimited JSON")
+    @ApiResponse(responseCode = "200", description = "Streams one widget per line",
+        content = {@Content(mediaType = APPLICATION_NDJSON_VALUE, schema = @Schema(implementation = WidgetDto.class))})
+    @GetMapping(path = EXPORT, produces = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportWidgets(@PathVariable(value = BOARD_ID, required = false) @Pattern(regexp = BOARD_ID_PATTERN) String boardId) {
+        WidgetService board = boardToRead(boardId);
+        ObjectWriter writer = objectMapper.writerFor(WidgetDto.class);
+        StreamingResponseBody body = outputStream -> {
+            OutputStream output = new BufferedOutputStream(outputStream, EXPORT_BUFFER_SIZE);
+            try {
+                board.exportAll(widget -> {
+                    try {
+                        output.write(writer.writeValueAsBytes(mapper.widgetToDto(widget)));
+                        output.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            output.flush();
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    @Operation(summary = "Stream the changes of the board as server-sent events")
+    @ApiResponse(responseCode = "200", description = "Sends one event per committed change, its id is the cursor of its revision",
+        content = {@Content(mediaType = TEXT_EVENT_STREAM_VALUE, schema = @Schema(implementation = WidgetChangeDto.class))})
+    @GetMapping(path = STREAM, produces = TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamChanges(@PathVariable(value = BOARD_ID, required = false) @Pattern(regexp = BOARD_ID_PATTERN) String boardId) {
+        SseEmitter emitter = new SseEmitter(STREAM_NO_TIMEOUT);
+        Function<WidgetChangeFeed, WidgetChangeFeed.Subscription> subscriber = feed -> feed.subscribe(
+            change -> send(emitter, feed.epoch(), change),
+            () -> emitter.completeWithError(new IllegalStateException("The subscriber fell behind the changes")));
+        // subscribing does not create a board, the subscriber gets the changes from its first write on
+        WidgetChangeFeed.Subscription subscription = boardId == null
+            ? subscriber.apply(service.getChangeFeed())
+            : boards().subscribe(boardId, subscriber);
+        emitter.onCompletion(subscription::close);
+        emitter.onTimeout(subscription::close);
+        emitter.onError(error -> subscription.close());
+        log.debug("Change feed of board {} subscribed", boardId);
+        return emitter;
+    }
+
+    @Operation(summary = "Returns the changes of the board after a revision")
+    @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "Returns the changes in order and the cursor of the revision they lead to",
+        content = {@Content(mediaType = APPLICATION_JSON_VALUE, schema = @Schema(implementation = WidgetChangesDto.class))}),
+        @ApiResponse(responseCode = "400", description = "Cursor is invalid", content = @Content),
+        @ApiResponse(responseCode = "410", description = "The revision is of an earlier run or no longer in the change log, load the board again",
+            content = @Content)})
+    @GetMapping(path = CHANGES, params = "since")
+    public ResponseEntity<WidgetChangesDto> getChangesSince(@PathVariable(value = BOARD_ID, required = false) @Pattern(regexp = BOARD_ID_PATTERN) String boardId,
+                                                            @RequestParam String since) {
+        RevisionCursor cursor = RevisionCursor.decode(since);
+        List<WidgetChangeDto> changes = boardToRead(boardId).findChangesSince(cursor.getEpoch(), cursor.getRevision())
+            .stream()
+            .map(this::toChangeDto)
+            .toList();
+        long revision = cursor.getRevision() + changes.size();
+        return ResponseEntity.ok().varyBy(HttpHeaders.ACCEPT).body(new WidgetChangesDto(revision,
+            new RevisionCursor(cursor.getEpoch(), revision).encode(), changes));
+    }
+
+    private void send(SseEmitter emitter, long epoch, WidgetChange change) {
+        try {
+            emitter.send(SseEmitter.event()
+                .id(new RevisionCursor(epoch, change.getRevision()).encode())
+                .name(change.getType().name().toLowerCase(Locale.ROOT))
+                .data(toChangeDto(change), MediaType.APPLICATION_JSON));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private WidgetChangeDto toChangeDto(WidgetChange change) {
+        return new WidgetChangeDto(change.getRevision(), WidgetChangeType.valueOf(change.getType().name()),
+            change.getId(), change.getWidget() == null ? null : mapper.widgetToDto(change.getWidget()),
+            change.getFromZ(), change.getToZ());
+    }
+
+    @Operation(summary = "Returns the widgets intersecting the area [x1, x2) x [y1, y2) in z order")
+    @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "Returns a list of widgets",
+        content = {@Content(mediaType = APPLICATION_JSON_VALUE, schema = @Schema(implementation = WidgetDto.class))}),
+        @ApiResponse(responseCode = "304", description = NOT_MODIFIED_DESCRIPTION, content = @Content)})
+    @GetMapping(params = {"x1", "y1", "x2", "y2"})
+    public ResponseEntity<List<WidgetDto>> getWidgetsInArea(@PathVariable(value = BOARD_ID, required = false) @Pattern(regexp = BOARD_ID_PATTERN) String boardId,
+                                                            @RequestParam int x1, @RequestParam int y1,
+                                                            @RequestParam int x2, @RequestParam int y2,
+                                                            ServletWebRequest request) {
+        WidgetService board = boardToRead(boardId);
+        if (notModified(request, boardTag(board))) {
+            return null;
+        }
+        return ResponseEntity.ok(mapper.widgetToDtoList(board.findInArea(x1, y1, x2, y2)));
+    }
+
+    @Operation(summary = "Get the widget on top at a point")
+    @ApiResponses(value = {@ApiResponse(responseCode = "200", description = "Found the Widget",
+        content = {@Content(mediaType = APPLICATION_JSON_VALUE, schema = @Schema(implementation = WidgetDto.class))}),
+        @ApiResponse(responseCode = "404", description = "Widget not found", content = @Content)})
+    @GetMapping(path = AT)
+    public ResponseEntity<WidgetDto> getWidgetAt(@PathVariable(value = BOARD_ID, required = false) @Pattern(regexp = BOARD_ID_PATTERN) String boardId,
+                                                 @RequestParam int x, @RequestParam int y) {
+        final Widget widget = boardToRead(boardId).findTopmostAt(x, y).orElseThrow(NotFoundException::new);
+        return ResponseEntity.ok().varyBy(HttpHeaders.ACCEPT).body(mapper.widgetToDto(widget));
+    }
+
+    @Operation(summary = "Get the widgets on top at many points, in the order of points")
+    @ApiResponse(responseCode = "200", description = "Returns the widget on top at every point, it is null when there is none",
+        content = {@Content(mediaType = APPLICATION_JSON_VALUE, schema = @Schema(implementation = WidgetHitDto.class))})
+    @PostMapping(path = AT, consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<WidgetHitDto>> getWidgetsAt(@PathVariable(value = BOARD_ID, required = false) @Pattern(regexp = BOARD_ID_PATTERN) String boardId,
+                                                           @RequestBody @Size(max = MAX_LIMIT) List<@Valid PointDto> points) {
+        WidgetService board = boardToRead(boardId);
+        List<WidgetHitDto> hits = points.stream()
+            .map(point -> new WidgetHitDto(point.getX(), point.getY(),
+                board.findTopmostAt(point.getX(), point.getY()).map(mapper::widgetToDto).orElse(null)))
+            .toList();
+        return ResponseEntity.ok(hits);
+    }
+
+    @Operation(summary = "Apply many creates, updates and deletes at once, in order",
+        description = "The batch is isolated from other writers, not atomic: every operation is committed on its own, "
+            + "one which fails does not undo the ones before it")
+    @ApiResponse(responseCode = "200", description = "Returns the result of every operation, in the order of operations",
+        content = {@Content(mediaType = APPLICATION_JSON_VALUE, schema = @Schema(implementation = WidgetOperationResultDto.class))})
+    @PostMapping(path = BATCH, consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<WidgetOperationResultDto>> applyBatch(
+        @PathVariable(value = BOARD_ID, required = false) @Pattern(regexp = BOARD_ID_PATTERN) String boardId,
+        @RequestBody @Size(max = MAX_LIMIT) List<@Valid WidgetOperationDto> operations) {
+        List<WidgetOperation> batch = operations.stream().map(this::toOperation).toList();
+        List<WidgetOperationResultDto> results = board(boardId).applyAll(batch).stream()
+            .map(result -> new WidgetOperationResultDto(status(result.getOutcome()),
+                result.getWidget() == null ? null : mapper.widgetToDto(result.getWidget()), result.getMessage()))
+            .toList();
+        return ResponseEntity.ok(results);
+    }
+
+    private WidgetOperation toOperation(WidgetOperationDto operation) {
+        return switch (operation.getType()) {
+            case CREATE -> WidgetOperation.create(mapper.dtoToWidgetCreate(operation.getWidget()));
+            case UPDATE -> WidgetOperation.update(operation.getId(), mapper.dtoToWidgetUpdate(operation.getWidget()));
+            case DELETE -> WidgetOperation.delete(operation.getId());
+        };
+    }
+
+    private static int status(WidgetOperationResult.Outcome outcome) {
+        return switch (outcome) {
+            case CREATED -> HttpStatus.CREATED.value();
+            case UPDATED -> HttpStatus.OK.value();
+            case DELETED -> HttpStatus.NO_CONTENT.value();
+            case NOT_FOUND -> HttpStatus.NOT_FOUND.value();
+            case CONFLICT, INVALID -> HttpStatus.BAD_REQUEST.value();
+            case FAILED -> HttpStatus.INTERNAL_SERVER_ERROR.value();
+        };
+    }
+
+    /**
+     * Check the If-None-Match of a negotiated response. The JSON, Smile and CBOR bodies of a URL are different bytes,
+     * so the strong ETag ends with the format the body is written in, and Vary: Accept keeps them apart in caches.
+     */
+    private static boolean notModified(ServletWebRequest request, String tag) {
+        HttpServletResponse response = request.getResponse();
+        if (response != null) {
+            response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        }
+        return request.checkNotModified("\"" + tag + "-" + format(request).getSubtype() + "\"");
+    }
+
+    /**
+     * The format of the response, chosen like the message converters do: the first of {@link #FORMATS} compatible with
+     * the most preferred accepted type. Without an acceptable one it is JSON, the request then fails with 406 anyway.
+     */
+    private static MediaType format(ServletWebRequest request) {
+        String accept = request.getHeader(HttpHeaders.ACCEPT);
+        if (accept == null) {
+            return MediaType.APPLICATION_JSON;
+        }
+        List<MediaType> accepted;
+        try {
+            accepted = new ArrayList<>(MediaType.parseMediaTypes(accept));
+        } catch (InvalidMediaTypeException e) {
+            return MediaType.APPLICATION_JSON;
+        }
+        MimeTypeUtils.sortBySpecificity(accepted);
+        for (MediaType type : accepted) {
+            for (MediaType format : FORMATS) {
+                if (type.isCompatibleWith(format)) {
+                    return format;
+                }
+            }
+        }
+        return MediaType.APPLICATION_JSON;
+    }
+
+    /**
+     * ETag of a widget. The version changes with every write of the widget, the modified date tells apart the widgets
+     * of a memory board which reuses ids after a restart.
+     */
+    private static String widgetTag(Widget widget) {
+        return widget.getVersion() + "-" + widget.getModifiedDate();
+    }
+
+    /**
+     * ETag of everything read from a board. It is taken before the read, so a change which commits in between makes
+     * the tag older than the body, which only costs the client one more full response.
+     */
+    private static String boardTag(WidgetService board) {
+        WidgetChangeFeed feed = board.getChangeFeed();
+        return Long.toHexString(feed.epoch()) + "-" + feed.revision();
+    }
+
+    /**
+     * The board to write to: the default board without a board id, otherwise the board is created when needed.
+     */
+    private WidgetService board(String boardId) {
+        if (boardId == null) {
+            return service;
+        }
+        return boards().board(boardId);
+    }
+
+    /**
+     * The board to read from: the default board without a board id, otherwise an empty board when it does not exist.
+     */
+    private WidgetService boardToRead(String boardId) {
+        if (boardId == null) {
+            return service;
+        }
+        return boards().boardToRead(boardId);
+    }
+
+    private BoardRegistry boards() {
+        if (boards == null) {
+            throw new NotFoundException();
+        }
+        return boards;
+    }
+}
@@ -0,0 +1,26 @@
+package com.miro.sample.board.dto;
+
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PointDto implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 4132985524708143019L;
+
+    @NotNull
+    private Integer x;
+
+    @NotNull
+    private Integer y;
+
+}
@@ -0,0 +1,55 @@
+package com.miro.sample.board.dto;
+
+import com.miro.sample.board.exceptions.InvalidCursorException;
+import lombok.Value;
+
+/**
+ * The last board revision a client has seen, together with the epoch of the change feed it comes from. Revisions of
+ * different epochs, for example before and after a restart, belong to different histories. It is sent to the client
+ * as {@code <epoch in hex>-<revision>}.
+ */
+@Value
+public class RevisionCursor {
+    private static final String SEPARATOR = "-";
+
+    long epoch;
+
+    long revision;
+
+    /**
+     * Encode the cursor to its string form.
+     *
+     * @return the encoded cursor
+     */
+    public String encode() {
+        return Long.toHexString(epoch) + SEPARATOR + revision;
+    }
+
+    /**
+     * Decode a cursor which was created by {@link #encode()}.
+     *
+     * @param cursor the encoded cursor
+     * @return the cursor
+     * @throws InvalidCursorException when the given string is not a cursor, or its revision is negative
+     */
+    public static RevisionCursor decode(String cursor) {
+        String[] parts = cursor.split(SEPARATOR, -1);
+        if (parts.length != 2) {
+            throw new InvalidCursorException();
+        }
+        long revision;
+        try {
+            revision = Long.parseLong(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new InvalidCursorException();
+        }
+        if (revision < 0) {
+            throw new InvalidCursorException();
+        }
+        try {
+            return new RevisionCursor(Long.parseUnsignedLong(parts[0], 16), revision);
+        } catch (NumberFormatException e) {
+            throw new InvalidCursorException();
+        }
+    }
+}
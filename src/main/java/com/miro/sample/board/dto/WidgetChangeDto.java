@@ -0,0 +1,31 @@
+package com.miro.sample.board.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class WidgetChangeDto implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 5176320951864409287L;
+
+    private Long revision;
+
+    private WidgetChangeType type;
+
+    private Long id;
+
+    private WidgetDto widget;
+
+    private Integer fromZ;
+
+    private Integer toZ;
+
+}
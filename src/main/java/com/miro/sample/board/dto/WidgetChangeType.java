@@ -0,0 +1,8 @@
+package com.miro.sample.board.dto;
+
+/**
+ * The kind of change of a {@link WidgetChangeDto}.
+ */
+public enum WidgetChangeType {
+    CREATED, UPDATED, DELETED, SHIFTED
+}
@@ -0,0 +1,26 @@
+package com.miro.sample.board.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class WidgetChangesDto implements Serializable {
+    @Serial
+    private static final long serialVersionUID = -3606541268829137190L;
+
+    private Long revision;
+
+    private String next;
+
+    private List<WidgetChangeDto> changes;
+
+}
@@ -0,0 +1,50 @@
+package com.miro.sample.board.dto;
+
+import com.miro.sample.board.exceptions.InvalidCursorException;
+import lombok.Value;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position of the last widget a client has seen while walking the board in z order. It is sent to the client as an
+ * opaque string.
+ */
+@Value
+public class WidgetCursor {
+    private static final String SEPARATOR = ":";
+
+    Integer z;
+
+    Long id;
+
+    /**
+     * Encode the cursor to its opaque form.
+     *
+     * @return the encoded cursor
+     */
+    public String encode() {
+        String plain = z + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(plain.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Decode a cursor which was created by {@link #encode()}.
+     *
+     * @param cursor the encoded cursor
+     * @return the cursor
+     * @throws InvalidCursorException when the given string is not a cursor
+     */
+    public static WidgetCursor decode(String cursor) {
+        try {
+            String plain = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+            String[] parts = plain.split(SEPARATOR, -1);
+            if (parts.length != 2) {
+                throw new InvalidCursorException();
+            }
+            return new WidgetCursor(Integer.valueOf(parts[0]), Long.valueOf(parts[1]));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException();
+        }
+    }
+}
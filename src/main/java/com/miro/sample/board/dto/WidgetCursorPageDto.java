@@ -0,0 +1,24 @@
+package com.miro.sample.board.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class WidgetCursorPageDto implements Serializable {
+    @Serial
+    private static final long serialVersionUID = -2851203794516712207L;
+
+    private List<WidgetDto> content;
+
+    private String next;
+
+}
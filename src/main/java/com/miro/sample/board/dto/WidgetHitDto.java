@@ -0,0 +1,25 @@
+package com.miro.sample.board.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class WidgetHitDto implements Serializable {
+    @Serial
+    private static final long serialVersionUID = -6503185271150417282L;
+
+    private Integer x;
+
+    private Integer y;
+
+    private WidgetDto widget;
+
+}
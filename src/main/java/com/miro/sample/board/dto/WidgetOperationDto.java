@@ -0,0 +1,45 @@
+package com.miro.sample.board.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.AssertTrue;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class WidgetOperationDto implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 3920417765120533719L;
+
+    @NotNull
+    private WidgetOperationType type;
+
+    @Min(1)
+    private Long id;
+
+    @Valid
+    private WidgetDto widget;
+
+    @JsonIgnore
+    @AssertTrue(message = "a create needs a widget, an update an id and a widget, a delete an id")
+    public boolean isComplete() {
+        if (type == null) {
+            return true;
+        }
+        return switch (type) {
+            case CREATE -> widget != null;
+            case UPDATE -> id != null && widget != null;
+            case DELETE -> id != null;
+        };
+    }
+}
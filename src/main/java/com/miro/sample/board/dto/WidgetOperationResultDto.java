@@ -0,0 +1,25 @@
+package com.miro.sample.board.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class WidgetOperationResultDto implements Serializable {
+    @Serial
+    private static final long serialVersionUID = -2251790342071385523L;
+
+    private Integer status;
+
+    private WidgetDto widget;
+
+    private String message;
+
+}
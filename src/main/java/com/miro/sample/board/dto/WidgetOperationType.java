@@ -0,0 +1,8 @@
+package com.miro.sample.board.dto;
+
+/**
+ * The kind of change of a {@link WidgetOperationDto}.
+ */
+public enum WidgetOperationType {
+    CREATE, UPDATE, DELETE
+}
@@ -0,0 +1,10 @@
+package com.miro.sample.board.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(code = HttpStatus.CONFLICT, reason = "Boards are kept in memory only, they can not be written while the journal is enabled")
+public class BoardNotDurableException extends RuntimeException {
+    private static final long serialVersionUID = 2746311805482209154L;
+
+}
@@ -0,0 +1,10 @@
+package com.miro.sample.board.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(code = HttpStatus.BAD_REQUEST, reason = "Cursor is invalid")
+public class InvalidCursorException extends RuntimeException {
+    private static final long serialVersionUID = -6402467321749262315L;
+
+}
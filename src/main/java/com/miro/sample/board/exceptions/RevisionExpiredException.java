@@ -0,0 +1,10 @@
+package com.miro.sample.board.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(code = HttpStatus.GONE, reason = "Revision is no longer available, load the board again")
+public class RevisionExpiredException extends RuntimeException {
+    private static final long serialVersionUID = 4418127290532265707L;
+
+}
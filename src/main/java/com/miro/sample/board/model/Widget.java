@@ -9,7 +9,10 @@ import org.springframework.data.annotation.LastModifiedDate;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 
 @Entity
-@Table(name = "WIDGET")
+@Table(name = "WIDGET", indexes = {
+    @Index(name = "IDX_WIDGET_Z", columnList = "z"),
+    @Index(name = "IDX_WIDGET_X_Y", columnList = "x, y"),
+    @Index(name = "IDX_WIDGET_WIDTH", columnList = "width")})
 @EntityListeners(AuditingEntityListener.class)
 @Builder
 @NoArgsConstructor
@@ -19,7 +22,8 @@ import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 public class Widget {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "widget_seq")
+    @SequenceGenerator(name = "widget_seq", sequenceName = "WIDGET_SEQ", allocationSize = 500)
     private Long id;
 
     @Version
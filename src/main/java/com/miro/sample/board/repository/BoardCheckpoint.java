@@ -0,0 +1,25 @@
+package com.miro.sample.board.repository;
+
+import lombok.Value;
+
+/**
+ * The state of {@link MemoryWidgetRepository} at one point, everything needed to restore it.
+ */
+@Value
+class BoardCheckpoint {
+
+    /**
+     * All widgets of the board.
+     */
+    BoardSnapshot board;
+
+    /**
+     * The last generated widget id.
+     */
+    long lastId;
+
+    /**
+     * The journal position after the last change of the board, or null without a journal.
+     */
+    WidgetJournal.Position journalPosition;
+}
@@ -0,0 +1,427 @@
+package com.miro.sample.board.repository;
+
+import com.miro.sample.board.model.Widget;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Spliterator;
+import java.util.Spliterators;
+
+/**
+ * Immutable view of the board at one revision, with the widgets ordered by z.
+ *
+ * <p>The widgets are kept in an AVL tree whose nodes also know the size, the lowest and the highest z of their
+ * subtree, so the k-th widget, the number of widgets and the first free z above a given one are found in logarithmic
+ * time. A change never touches an existing node, it copies the path from the root to the changed node and shares the
+ * rest of the tree, so taking a snapshot is free and a reader never sees a half applied change.
+ */
+public final class BoardSnapshot implements Iterable<Widget> {
+
+    static final BoardSnapshot EMPTY = new BoardSnapshot(null, 0L);
+
+    private final Node root;
+    private final long revision;
+
+    private BoardSnapshot(Node root, long revision) {
+        this.root = root;
+        this.revision = revision;
+    }
+
+    /**
+     * Build a board from widgets which are already ordered by z, in linear time.
+     *
+     * @param widgets  the widgets in strictly ascending z order
+     * @param revision the revision of board
+     * @return the board
+     */
+    static BoardSnapshot ofSorted(List<Widget> widgets, long revision) {
+        for (int i = 1; i < widgets.size(); i++) {
+            if (widgets.get(i - 1).getZ() >= widgets.get(i).getZ()) {
+                throw new IllegalArgumentException("Widgets are not in strictly ascending z order at " + i);
+            }
+        }
+        return new BoardSnapshot(build(widgets, 0, widgets.size()), revision);
+    }
+
+    /**
+     * The revision of board, it is increased by every published change.
+     *
+     * @return the revision
+     */
+    public long getRevision() {
+        return revision;
+    }
+
+    /**
+     * Number of widgets on the board.
+     *
+     * @return the size
+     */
+    public int size() {
+        return size(root);
+    }
+
+    /**
+     * Find the widget at the given z.
+     *
+     * @param z the z
+     * @return the widget
+     */
+    public Optional<Widget> findByZ(int z) {
+        Node node = root;
+        while (node != null) {
+            if (z < node.key) {
+                node = node.left;
+            } else if (z > node.key) {
+                node = node.right;
+            } else {
+                return Optional.of(node.widget);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * The highest z of the board.
+     *
+     * @return the highest z, or empty when the board is empty
+     */
+    public OptionalInt maxZ() {
+        Node node = root;
+        return node == null ? OptionalInt.empty() : OptionalInt.of(node.max);
+    }
+
+    /**
+     * Find the z at the given position in ascending order.
+     *
+     * @param rank the position, starting from 0
+     * @return the z, or empty when the rank is out of the board
+     */
+    public OptionalInt zAt(long rank) {
+        Node node = root;
+        if (rank < 0 || rank >= size(node)) {
+            return OptionalInt.empty();
+        }
+        long remaining = rank;
+        while (node != null) {
+            int leftSize = size(node.left);
+            if (remaining < leftSize) {
+                node = node.left;
+            } else if (remaining == leftSize) {
+                return OptionalInt.of(node.key);
+            } else {
+                remaining -= leftSize + 1;
+                node = node.right;
+            }
+        }
+        return OptionalInt.empty();
+    }
+
+    /**
+     * Find the first z at or above the given one which is not taken. Subtrees without any gap between their lowest
+     * and highest z are skipped as a whole.
+     *
+     * @param z the z to start from
+     * @return the first free z, or empty when all of them up to {@link Integer#MAX_VALUE} are taken
+     */
+    public OptionalInt firstFreeZ(int z) {
+        long free = firstFree(root, z);
+        return free > Integer.MAX_VALUE ? OptionalInt.empty() : OptionalInt.of((int) free);
+    }
+
+    /**
+     * Find the widgets at the given position in z order.
+     *
+     * @param offset the position of first widget
+     * @param limit  the maximum number of widgets
+     * @return the widgets ordered by z
+     */
+    public List<Widget> findPage(long offset, int limit) {
+        OptionalInt firstZ = zAt(offset);
+        if (firstZ.isEmpty()) {
+            return List.of();
+        }
+        // the limit comes from the caller, only the widgets which are there are allocated for
+        List<Widget> page = new ArrayList<>((int) Math.min(limit, size() - offset));
+        Iterator<Widget> widgets = iteratorFrom(firstZ.getAsInt());
+        while (page.size() < limit && widgets.hasNext()) {
+            page.add(widgets.next());
+        }
+        return page;
+    }
+
+    /**
+     * Find the widgets which come after the given position in (z, id) order.
+     *
+     * @param z     the z of the last seen widget
+     * @param id    the id of the last seen widget
+     * @param limit the maximum number of widgets
+     * @return the widgets ordered by z
+     */
+    public List<Widget> findPageAfter(int z, long id, int limit) {
+        List<Widget> page = new ArrayList<>(limit);
+        ZOrderIterator nodes = new ZOrderIterator(root, z);
+        while (page.size() < limit && nodes.hasNext()) {
+            Node node = nodes.nextNode();
+            if (node.key != z || node.widget.getId() > id) {
+                page.add(node.widget);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Find the widgets with fromZ &lt;= z &lt; toZ.
+     *
+     * @param fromZ the lowest z, inclusive
+     * @param toZ   the highest z, exclusive
+     * @return the widgets ordered by z
+     */
+    public List<Widget> findRange(int fromZ, int toZ) {
+        List<Widget> range = new ArrayList<>();
+        ZOrderIterator nodes = new ZOrderIterator(root, fromZ);
+        while (nodes.hasNext()) {
+            Node node = nodes.nextNode();
+            if (node.key >= toZ) {
+                break;
+            }
+            range.add(node.widget);
+        }
+        return range;
+    }
+
+    /**
+     * Iterate the widgets in z order without copying them.
+     *
+     * @return the iterator
+     */
+    @Override
+    public Iterator<Widget> iterator() {
+        return iteratorFrom(Integer.MIN_VALUE);
+    }
+
+    /**
+     * Split the widgets in z order, with the known size so streams can size their buffers.
+     *
+     * @return the spliterator
+     */
+    @Override
+    public Spliterator<Widget> spliterator() {
+        return Spliterators.spliterator(iterator(), size(),
+            Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+    }
+
+    /**
+     * Iterate the widgets with a z at or above the given one in z order without copying them.
+     *
+     * @param z the lowest z, inclusive
+     * @return the iterator
+     */
+    public Iterator<Widget> iteratorFrom(int z) {
+        return new ZOrderIterator(root, z);
+    }
+
+    /**
+     * Put the widget at its z, replacing the widget which was there.
+     *
+     * @param widget the widget
+     * @return the changed board with the same revision
+     */
+    BoardSnapshot put(Widget widget) {
+        return new BoardSnapshot(insert(root, widget.getZ(), widget), revision);
+    }
+
+    /**
+     * Remove the widget at the given z.
+     *
+     * @param z the z
+     * @return the changed board with the same revision
+     */
+    BoardSnapshot remove(int z) {
+        Node changed = delete(root, z);
+        return changed == root ? this : new BoardSnapshot(changed, revision);
+    }
+
+    /**
+     * Remove all widgets.
+     *
+     * @return the empty board with the same revision
+     */
+    BoardSnapshot clear() {
+        return new BoardSnapshot(null, revision);
+    }
+
+    /**
+     * The same board with the next revision, to be published.
+     *
+     * @return the board with the next revision
+     */
+    BoardSnapshot nextRevision() {
+        return new BoardSnapshot(root, revision + 1);
+    }
+
+    private static Node build(List<Widget> widgets, int from, int to) {
+        if (from >= to) {
+            return null;
+        }
+        int middle = (from + to) >>> 1;
+        Widget widget = widgets.get(middle);
+        return new Node(widget.getZ(), widget, build(widgets, from, middle), build(widgets, middle + 1, to));
+    }
+
+    private static long firstFree(Node node, long z) {
+        long candidate = z;
+        while (node != null && candidate >= node.min && candidate <= node.max) {
+            if ((long) node.max - node.min + 1L == node.size) {
+                return node.max + 1L;
+            }
+            if (candidate < node.key) {
+                candidate = firstFree(node.left, candidate);
+                if (candidate < node.key) {
+                    return candidate;
+                }
+            }
+            if (candidate == node.key) {
+                candidate = node.key + 1L;
+            }
+            node = node.right;
+        }
+        return candidate;
+    }
+
+    private static Node insert(Node node, int z, Widget widget) {
+        if (node == null) {
+            return new Node(z, widget, null, null);
+        }
+        if (z < node.key) {
+            return balance(node.key, node.widget, insert(node.left, z, widget), node.right);
+        }
+        if (z > node.key) {
+            return balance(node.key, node.widget, node.left, insert(node.right, z, widget));
+        }
+        return new Node(z, widget, node.left, node.right);
+    }
+
+    private static Node delete(Node node, int z) {
+        if (node == null) {
+            return null;
+        }
+        if (z < node.key) {
+            Node left = delete(node.left, z);
+            return left == node.left ? node : balance(node.key, node.widget, left, node.right);
+        }
+        if (z > node.key) {
+            Node right = delete(node.right, z);
+            return right == node.right ? node : balance(node.key, node.widget, node.left, right);
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        Node successor = node.right;
+        while (successor.left != null) {
+            successor = successor.left;
+        }
+        return balance(successor.key, successor.widget, node.left, delete(node.right, successor.key));
+    }
+
+    private static Node balance(int key, Widget widget, Node left, Node right) {
+        int diff = height(left) - height(right);
+        if (diff > 1) {
+            if (height(left.left) < height(left.right)) {
+                left = rotateLeft(left.key, left.widget, left.left, left.right);
+            }
+            return rotateRight(key, widget, left, right);
+        }
+        if (diff < -1) {
+            if (height(right.right) < height(right.left)) {
+                right = rotateRight(right.key, right.widget, right.left, right.right);
+            }
+            return rotateLeft(key, widget, left, right);
+        }
+        return new Node(key, widget, left, right);
+    }
+
+    private static Node rotateRight(int key, Widget widget, Node left, Node right) {
+        return new Node(left.key, left.widget, left.left, new Node(key, widget, left.right, right));
+    }
+
+    private static Node rotateLeft(int key, Widget widget, Node left, Node right) {
+        return new Node(right.key, right.widget, new Node(key, widget, left, right.left), right.right);
+    }
+
+    private static int height(Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static final class Node {
+        private final int key;
+        private final Widget widget;
+        private final Node left;
+        private final Node right;
+        private final int height;
+        private final int size;
+        private final int min;
+        private final int max;
+
+        private Node(int key, Widget widget, Node left, Node right) {
+            this.key = key;
+            this.widget = widget;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+            this.size = size(left) + size(right) + 1;
+            this.min = left == null ? key : left.min;
+            this.max = right == null ? key : right.max;
+        }
+    }
+
+    private static final class ZOrderIterator implements Iterator<Widget> {
+        private final Deque<Node> path = new ArrayDeque<>();
+
+        private ZOrderIterator(Node root, int fromZ) {
+            Node node = root;
+            while (node != null) {
+                if (node.key >= fromZ) {
+                    path.push(node);
+                    node = node.left;
+                } else {
+                    node = node.right;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !path.isEmpty();
+        }
+
+        @Override
+        public Widget next() {
+            return nextNode().widget;
+        }
+
+        private Node nextNode() {
+            if (path.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node node = path.pop();
+            for (Node next = node.right; next != null; next = next.left) {
+                path.push(next);
+            }
+            return node;
+        }
+    }
+}
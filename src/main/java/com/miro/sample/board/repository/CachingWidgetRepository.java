@@ -0,0 +1,322 @@
+package com.miro.sample.board.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.miro.sample.board.model.Widget;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Read-through cache of widgets by id in front of {@link DatabaseWidgetRepository}.
+ *
+ * <p>The cache is bounded and evicts with W-TinyLFU, so the hot widgets stay in it. An entry holds the widget at one
+ * version: a write drops it right away and puts the stored state back when the transaction commits, where a newer
+ * version is never replaced by an older one, and a shift drops exactly the widgets of the shifted range. A read-through
+ * load is cached only when no eviction ran while it read the database, so a load which saw the state before a write
+ * or a shift can not put it back after the eviction. Callers get copies, so the cached widgets never change. Other
+ * queries go to the database.
+ *
+ * <p>The hit, miss and eviction counters are logged at every stats interval and on shutdown, to tell whether the
+ * cache is large enough for the hot widgets.
+ */
+@Slf4j
+@Primary
+@Repository
+@Profile("h2")
+@ConditionalOnProperty(name = "widget.cache.enabled", havingValue = "true")
+public class CachingWidgetRepository implements WidgetRepository, DisposableBean {
+
+    private final DatabaseWidgetRepository delegate;
+    private final Cache<Long, Widget> widgetsById;
+    private final AtomicLong evictions = new AtomicLong();
+    private final ScheduledExecutorService statsLogger;
+
+    /**
+     * Instantiates a new caching widget repository.
+     *
+     * @param delegate            the database repository
+     * @param maximumSize         the maximum number of cached widgets
+     * @param statsIntervalMillis the interval between logs of the cache statistics, 0 logs them only on shutdown
+     */
+    public CachingWidgetRepository(DatabaseWidgetRepository delegate,
+                                   @Value("${widget.cache.maximum-size:10000}") long maximumSize,
+                                   @Value("${widget.cache.stats-interval-ms:60000}") long statsIntervalMillis) {
+        this.delegate = delegate;
+        this.widgetsById = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .recordStats()
+            .build();
+        this.statsLogger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "widget-cache-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (statsIntervalMillis > 0) {
+            statsLogger.scheduleWithFixedDelay(this::logStats, statsIntervalMillis, statsIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        }
+        log.info("Caching up to {} widgets", maximumSize);
+    }
+
+    /**
+     * Hit, miss and eviction counters of the cache.
+     *
+     * @return the statistics
+     */
+    public CacheStats stats() {
+        return widgetsById.stats();
+    }
+
+    @Override
+    public void destroy() {
+        statsLogger.shutdownNow();
+        logStats();
+    }
+
+    private void logStats() {
+        CacheStats stats = stats();
+        log.info("Widget cache: {} widgets, hit rate {}, {} hits, {} misses, {} evictions",
+            widgetsById.estimatedSize(), String.format("%.3f", stats.hitRate()), stats.hitCount(),
+            stats.missCount(), stats.evictionCount());
+    }
+
+    @Override
+    public boolean isTransactional() {
+        return delegate.isTransactional();
+    }
+
+    @Override
+    public DurabilityScope deferDurability() {
+        return delegate.deferDurability();
+    }
+
+    @Override
+    public <S extends Widget> S save(S widget) {
+        if (widget.getId() != null) {
+            evict(widget.getId());
+        }
+        S saved = delegate.save(widget);
+        afterCompletion(committed -> refresh(saved, committed));
+        return saved;
+    }
+
+    @Override
+    public <S extends Widget> Iterable<S> saveAll(Iterable<S> entities) {
+        for (S widget : entities) {
+            if (widget.getId() != null) {
+                evict(widget.getId());
+            }
+        }
+        Iterable<S> saved = delegate.saveAll(entities);
+        afterCompletion(committed -> saved.forEach(widget -> refresh(widget, committed)));
+        return saved;
+    }
+
+    @Override
+    public Optional<Widget> findById(Long id) {
+        Widget cached = widgetsById.getIfPresent(id);
+        if (cached != null) {
+            return Optional.of(new Widget(cached));
+        }
+        long evictionsBeforeLoad = evictions.get();
+        Optional<Widget> loaded = delegate.findById(id).map(Widget::new);
+        loaded.ifPresent(widget -> widgetsById.asMap().compute(id, (key, current) -> {
+            if (evictions.get() != evictionsBeforeLoad) {
+                return current;
+            }
+            return current != null && current.getVersion() > widget.getVersion() ? current : widget;
+        }));
+        return loaded.map(Widget::new);
+    }
+
+    @Override
+    public boolean existsById(Long id) {
+        return widgetsById.getIfPresent(id) != null || delegate.existsById(id);
+    }
+
+    @Override
+    public Iterable<Widget> findAll() {
+        return delegate.findAll();
+    }
+
+    @Override
+    public Iterable<Widget> findAllById(Iterable<Long> ids) {
+        return delegate.findAllById(ids);
+    }
+
+    @Override
+    public long count() {
+        return delegate.count();
+    }
+
+    @Override
+    public void deleteById(Long id) {
+        delegate.deleteById(id);
+        evict(List.of(id));
+    }
+
+    @Override
+    public void delete(Widget widget) {
+        delegate.delete(widget);
+        evict(List.of(widget.getId()));
+    }
+
+    @Override
+    public void deleteAllById(Iterable<? extends Long> ids) {
+        delegate.deleteAllById(ids);
+        List<Long> deleted = new ArrayList<>();
+        ids.forEach(deleted::add);
+        evict(deleted);
+    }
+
+    @Override
+    public void deleteAll(Iterable<? extends Widget> entities) {
+        delegate.deleteAll(entities);
+        List<Long> deleted = new ArrayList<>();
+        entities.forEach(widget -> deleted.add(widget.getId()));
+        evict(deleted);
+    }
+
+    @Override
+    public void deleteAll() {
+        delegate.deleteAll();
+        evictAll();
+        afterCompletion(committed -> evictAll());
+    }
+
+    @Override
+    public Optional<Widget> findByZ(Integer z) {
+        return delegate.findByZ(z);
+    }
+
+    @Override
+    public Integer findMaxZ() {
+        return delegate.findMaxZ();
+    }
+
+    @Override
+    public Optional<Integer> findFirstFreeZ(Integer z) {
+        return delegate.findFirstFreeZ(z);
+    }
+
+    /**
+     * Shift in the database and drop the cached widgets of the shifted range, their z and version changed.
+     *
+     * @param fromZ the lowest z to move, inclusive
+     * @param toZ   the highest z to move, exclusive
+     * @return the number of moved widgets
+     */
+    @Override
+    public int shiftZ(Integer fromZ, Integer toZ) {
+        int shifted = delegate.shiftZ(fromZ, toZ);
+        evictRange(fromZ, toZ);
+        afterCompletion(committed -> evictRange(fromZ, toZ));
+        return shifted;
+    }
+
+    @Override
+    public Iterable<Widget> findAllByOrderByZAsc() {
+        return delegate.findAllByOrderByZAsc();
+    }
+
+    @Override
+    public Stream<Widget> streamAllByOrderByZAsc() {
+        return delegate.streamAllByOrderByZAsc();
+    }
+
+    @Override
+    public Page<Widget> findAll(Pageable pageable) {
+        return delegate.findAll(pageable);
+    }
+
+    @Override
+    public List<Widget> findPageAfter(Integer z, Long id, int limit) {
+        return delegate.findPageAfter(z, id, limit);
+    }
+
+    @Override
+    public List<Widget> findAllIntersecting(Integer x1, Integer y1, Integer x2, Integer y2) {
+        return delegate.findAllIntersecting(x1, y1, x2, y2);
+    }
+
+    @Override
+    public Optional<Widget> findTopmostAt(Integer x, Integer y) {
+        return delegate.findTopmostAt(x, y);
+    }
+
+    private void refresh(Widget stored, boolean committed) {
+        if (!committed) {
+            evict(stored.getId());
+            return;
+        }
+        Widget copy = new Widget(stored);
+        widgetsById.asMap().merge(copy.getId(), copy,
+            (cached, fresh) -> cached.getVersion() > fresh.getVersion() ? cached : fresh);
+    }
+
+    private void evict(List<Long> ids) {
+        evictions.incrementAndGet();
+        widgetsById.invalidateAll(ids);
+        afterCompletion(committed -> {
+            evictions.incrementAndGet();
+            widgetsById.invalidateAll(ids);
+        });
+    }
+
+    /**
+     * Drop the cached widget. The eviction is counted before the entry goes, so a load in flight does not cache it.
+     */
+    private void evict(Long id) {
+        evictions.incrementAndGet();
+        widgetsById.invalidate(id);
+    }
+
+    private void evictAll() {
+        evictions.incrementAndGet();
+        widgetsById.invalidateAll();
+    }
+
+    /**
+     * Drop the cached widgets with fromZ &lt;= z &lt; toZ. The cache holds the hot widgets only, so a scan is cheap.
+     */
+    private void evictRange(int fromZ, int toZ) {
+        evictions.incrementAndGet();
+        widgetsById.asMap().values().removeIf(widget -> widget.getZ() >= fromZ && widget.getZ() < toZ);
+    }
+
+    /**
+     * Run the action when the surrounding transaction completes, or right away without one.
+     */
+    private static void afterCompletion(Consumer<Boolean> action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.accept(true);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                action.accept(status == STATUS_COMMITTED);
+            }
+        });
+    }
+}
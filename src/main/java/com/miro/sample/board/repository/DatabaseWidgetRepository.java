@@ -1,19 +1,26 @@
 package com.miro.sample.board.repository;
 
+import java.util.List;
 import java.util.Optional;
 
 import com.miro.sample.board.model.Widget;
 import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.data.repository.PagingAndSortingRepository;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 /**
  * The interface Widget db repository for H2DB.
  */
-@Profile("h2")
+@Profile({"h2", "tiered"})
 @Repository
-public interface DatabaseWidgetRepository extends WidgetRepository, PagingAndSortingRepository<Widget, Long> {
+public interface DatabaseWidgetRepository extends WidgetRepository, PagingAndSortingRepository<Widget, Long>,
+    DatabaseWidgetStreams {
 
     Iterable<Widget> findAllByOrderByZAsc();
 
@@ -22,4 +29,68 @@ public interface DatabaseWidgetRepository extends WidgetRepository, PagingAndSor
     @Query(value = "SELECT max(z) FROM WIDGET", nativeQuery = true)
     Integer findMaxZ();
 
+    @Query(value = "SELECT min(w.z) + 1 FROM WIDGET w WHERE w.z >= :z AND w.z < 2147483647 "
+        + "AND NOT EXISTS (SELECT 1 FROM WIDGET n WHERE n.z = w.z + 1)", nativeQuery = true)
+    Optional<Integer> findFirstFreeZ(@Param("z") Integer z);
+
+    @Override
+    default boolean isTransactional() {
+        return true;
+    }
+
+    @Override
+    default List<Widget> findPageAfter(Integer z, Long id, int limit) {
+        return findPageAfter(z, id, PageRequest.of(0, limit));
+    }
+
+    @Query("SELECT w FROM Widget w WHERE w.z >= :z AND (w.z > :z OR w.id > :id) ORDER BY w.z ASC, w.id ASC")
+    List<Widget> findPageAfter(@Param("z") Integer z, @Param("id") Long id, Pageable pageable);
+
+    /**
+     * The width of the widest widget, to bound x from the left in the area queries.
+     */
+    String MAX_WIDTH = "(SELECT COALESCE(MAX(m.width), 0) FROM WIDGET m)";
+
+    /**
+     * Find the widgets intersecting the area. No widget is wider than the widest one, so a widget reaching x1 starts
+     * after x1 minus that width, which bounds x from both sides and keeps the scan of the x, y index to a window
+     * around the area. The widest width is a direct lookup in the width index.
+     *
+     * @param x1 the left edge, inclusive
+     * @param y1 the top edge, inclusive
+     * @param x2 the right edge, exclusive
+     * @param y2 the bottom edge, exclusive
+     * @return the widgets ordered by z
+     */
+    @Query(value = "SELECT * FROM WIDGET w WHERE w.x < :x2 AND w.x > CAST(:x1 AS BIGINT) - " + MAX_WIDTH
+        + " AND CAST(w.x AS BIGINT) + w.width > :x1 "
+        + "AND w.y < :y2 AND CAST(w.y AS BIGINT) + w.height > :y1 ORDER BY w.z", nativeQuery = true)
+    List<Widget> findAllIntersecting(@Param("x1") Integer x1, @Param("y1") Integer y1,
+                                     @Param("x2") Integer x2, @Param("y2") Integer y2);
+
+    @Query(value = "SELECT * FROM WIDGET w WHERE w.x <= :x AND w.x > CAST(:x AS BIGINT) - " + MAX_WIDTH
+        + " AND CAST(w.x AS BIGINT) + w.width > :x AND w.y <= :y AND CAST(w.y AS BIGINT) + w.height > :y ORDER BY w.z DESC LIMIT 1", nativeQuery = true)
+    Optional<Widget> findTopmostAt(@Param("x") Integer x, @Param("y") Integer y);
+
+    @Override
+    @Transactional
+    default int shiftZ(Integer fromZ, Integer toZ) {
+        return shiftZ(fromZ, toZ, System.currentTimeMillis());
+    }
+
+    /**
+     * Shift the range with one set-based UPDATE. The statement is atomic, so the half-shifted board is never
+     * visible and no per-row version check is needed.
+     *
+     * @param fromZ        the lowest z to move, inclusive
+     * @param toZ          the highest z to move, exclusive
+     * @param modifiedDate the modification date of the moved widgets
+     * @return the number of moved widgets
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Widget w SET w.z = w.z + 1, w.version = w.version + 1, w.modifiedDate = :modifiedDate "
+        + "WHERE w.z >= :fromZ AND w.z < :toZ")
+    int shiftZ(@Param("fromZ") Integer fromZ, @Param("toZ") Integer toZ, @Param("modifiedDate") Long modifiedDate);
+
 }
\ No newline at end of file
@@ -0,0 +1,18 @@
+package com.miro.sample.board.repository;
+
+import java.util.stream.Stream;
+
+import com.miro.sample.board.model.Widget;
+
+/**
+ * Streaming reads of the widget db repository, implemented with a server-side cursor.
+ */
+public interface DatabaseWidgetStreams {
+
+    /**
+     * Stream all widgets ordered by z. It has to be consumed inside a transaction and closed.
+     *
+     * @return the widgets ordered by z
+     */
+    Stream<Widget> streamAllByOrderByZAsc();
+}
@@ -0,0 +1,32 @@
+package com.miro.sample.board.repository;
+
+import java.util.stream.Stream;
+
+import com.miro.sample.board.model.Widget;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.jpa.HibernateHints;
+
+/**
+ * Streams the widgets through a forward-only cursor. The rows are fetched in chunks, loaded read-only and detached
+ * as soon as they are handed out, so neither the result set nor the persistence context grows with the board.
+ */
+class DatabaseWidgetStreamsImpl implements DatabaseWidgetStreams {
+
+    private static final int FETCH_SIZE = 500;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public Stream<Widget> streamAllByOrderByZAsc() {
+        return entityManager.createQuery("SELECT w FROM Widget w ORDER BY w.z ASC", Widget.class)
+            .setHint(HibernateHints.HINT_FETCH_SIZE, FETCH_SIZE)
+            .setHint(HibernateHints.HINT_READ_ONLY, true)
+            .getResultStream()
+            .map(widget -> {
+                entityManager.detach(widget);
+                return widget;
+            });
+    }
+}
@@ -0,0 +1,157 @@
+package com.miro.sample.board.repository;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from a positive long key to an int value, kept in two primitive arrays. Lookups neither
+ * box nor allocate. It is not thread safe.
+ */
+final class LongIntHashMap {
+
+    static final int NO_VALUE = -1;
+
+    private static final long FREE = 0L;
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+
+    /**
+     * Instantiates a new map.
+     */
+    LongIntHashMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Number of entries.
+     *
+     * @return the size
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Find the value of key.
+     *
+     * @param key the key
+     * @return the value, or {@link #NO_VALUE}
+     */
+    int get(long key) {
+        if (key <= FREE) {
+            return NO_VALUE;
+        }
+        for (int index = index(key); ; index = (index + 1) & mask) {
+            long current = keys[index];
+            if (current == key) {
+                return values[index];
+            }
+            if (current == FREE) {
+                return NO_VALUE;
+            }
+        }
+    }
+
+    /**
+     * Put the value of key.
+     *
+     * @param key   the key, must be positive
+     * @param value the value
+     * @return the previous value, or {@link #NO_VALUE}
+     */
+    int put(long key, int value) {
+        if (key <= FREE) {
+            throw new IllegalArgumentException("Key must be positive: " + key);
+        }
+        int index = index(key);
+        while (keys[index] != FREE) {
+            if (keys[index] == key) {
+                int previous = values[index];
+                values[index] = value;
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = value;
+        if (++size > (mask + 1) >> 1) {
+            rehash((mask + 1) << 1);
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * Remove the key. The entries after it are moved back, so no tombstones are left behind.
+     *
+     * @param key the key
+     * @return the removed value, or {@link #NO_VALUE}
+     */
+    int remove(long key) {
+        if (key <= FREE) {
+            return NO_VALUE;
+        }
+        int index = index(key);
+        while (keys[index] != key) {
+            if (keys[index] == FREE) {
+                return NO_VALUE;
+            }
+            index = (index + 1) & mask;
+        }
+        int removed = values[index];
+        int gap = index;
+        for (int next = (gap + 1) & mask; keys[next] != FREE; next = (next + 1) & mask) {
+            int home = index(keys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        keys[gap] = FREE;
+        size--;
+        return removed;
+    }
+
+    /**
+     * Remove all entries and release the memory of a grown map.
+     */
+    void clear() {
+        if (mask + 1 > MIN_CAPACITY) {
+            allocate(MIN_CAPACITY);
+        } else {
+            Arrays.fill(keys, FREE);
+        }
+        size = 0;
+    }
+
+    private int index(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != FREE) {
+                int index = index(key);
+                while (keys[index] != FREE) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = key;
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+}
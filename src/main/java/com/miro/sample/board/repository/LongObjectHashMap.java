@@ -0,0 +1,268 @@
+package com.miro.sample.board.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Open addressing hash map from a positive long key to an object, kept in primitive key and object value arrays.
+ *
+ * <p>Writers are expected to be serialized by the caller and take the write lock only to exclude readers. Readers
+ * probe the table under an optimistic stamp and fall back to the read lock when a write came in between, so a lookup
+ * neither boxes its key nor allocates, and does not block in the common case.
+ *
+ * @param <V> the type of values
+ */
+final class LongObjectHashMap<V> {
+
+    private static final long FREE = 0L;
+    private static final int MIN_CAPACITY = 16;
+
+    private final StampedLock lock = new StampedLock();
+    private Table<V> table = new Table<>(MIN_CAPACITY);
+    private int size;
+
+    /**
+     * Number of entries.
+     *
+     * @return the size
+     */
+    int size() {
+        long stamp = lock.tryOptimisticRead();
+        int current = size;
+        if (lock.validate(stamp)) {
+            return current;
+        }
+        stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Find the value of key.
+     *
+     * @param key the key
+     * @return the value, or null
+     */
+    V get(long key) {
+        if (key <= FREE) {
+            return null;
+        }
+        long stamp = lock.tryOptimisticRead();
+        V value = table.get(key);
+        if (lock.validate(stamp)) {
+            return value;
+        }
+        stamp = lock.readLock();
+        try {
+            return table.get(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Put the value of key.
+     *
+     * @param key   the key, must be positive
+     * @param value the value, not null
+     * @return the previous value, or null
+     */
+    V put(long key, V value) {
+        if (key <= FREE) {
+            throw new IllegalArgumentException("Key must be positive: " + key);
+        }
+        long stamp = lock.writeLock();
+        try {
+            V previous = table.put(key, value);
+            if (previous == null && ++size > table.capacity() >> 1) {
+                table = table.resize(table.capacity() << 1);
+            }
+            return previous;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Grow the table once so the expected number of entries fits without rehashing on every doubling.
+     *
+     * @param expected the expected number of entries
+     */
+    void ensureCapacity(int expected) {
+        long stamp = lock.writeLock();
+        try {
+            int capacity = table.capacity();
+            while (expected > capacity >> 1 && capacity < 1 << 30) {
+                capacity <<= 1;
+            }
+            if (capacity > table.capacity()) {
+                table = table.resize(capacity);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove the key.
+     *
+     * @param key the key
+     * @return the removed value, or null
+     */
+    V remove(long key) {
+        if (key <= FREE) {
+            return null;
+        }
+        long stamp = lock.writeLock();
+        try {
+            V removed = table.remove(key);
+            if (removed != null) {
+                size--;
+            }
+            return removed;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove all entries and release the memory of a grown map.
+     */
+    void clear() {
+        long stamp = lock.writeLock();
+        try {
+            table = new Table<>(MIN_CAPACITY);
+            size = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Copy the values.
+     *
+     * @return the values in no particular order
+     */
+    List<V> values() {
+        long stamp = lock.readLock();
+        try {
+            List<V> values = new ArrayList<>(size);
+            table.forEach(values);
+            return values;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private static final class Table<V> {
+        private final long[] keys;
+        private final Object[] values;
+        private final int mask;
+
+        private Table(int capacity) {
+            this.keys = new long[capacity];
+            this.values = new Object[capacity];
+            this.mask = capacity - 1;
+        }
+
+        private int capacity() {
+            return mask + 1;
+        }
+
+        /**
+         * Probe for the key. The probe is bounded by the capacity, since a reader may see the table in the middle of
+         * a change.
+         */
+        @SuppressWarnings("unchecked")
+        private V get(long key) {
+            int index = index(key);
+            for (int probes = 0; probes <= mask; probes++) {
+                long current = keys[index];
+                if (current == key) {
+                    return (V) values[index];
+                }
+                if (current == FREE) {
+                    return null;
+                }
+                index = (index + 1) & mask;
+            }
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        private V put(long key, V value) {
+            int index = index(key);
+            while (keys[index] != FREE) {
+                if (keys[index] == key) {
+                    V previous = (V) values[index];
+                    values[index] = value;
+                    return previous;
+                }
+                index = (index + 1) & mask;
+            }
+            values[index] = value;
+            keys[index] = key;
+            return null;
+        }
+
+        /**
+         * Remove the key and move the entries after it back, so no tombstones are left behind.
+         */
+        @SuppressWarnings("unchecked")
+        private V remove(long key) {
+            int index = index(key);
+            while (keys[index] != key) {
+                if (keys[index] == FREE) {
+                    return null;
+                }
+                index = (index + 1) & mask;
+            }
+            V removed = (V) values[index];
+            int gap = index;
+            for (int next = (gap + 1) & mask; keys[next] != FREE; next = (next + 1) & mask) {
+                int home = index(keys[next]);
+                if (((next - home) & mask) >= ((next - gap) & mask)) {
+                    keys[gap] = keys[next];
+                    values[gap] = values[next];
+                    gap = next;
+                }
+            }
+            keys[gap] = FREE;
+            values[gap] = null;
+            return removed;
+        }
+
+        private Table<V> resize(int capacity) {
+            Table<V> resized = new Table<>(capacity);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != FREE) {
+                    int index = resized.index(keys[i]);
+                    while (resized.keys[index] != FREE) {
+                        index = (index + 1) & resized.mask;
+                    }
+                    resized.keys[index] = keys[i];
+                    resized.values[index] = values[i];
+                }
+            }
+            return resized;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void forEach(List<V> target) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != FREE) {
+                    target.add((V) values[i]);
+                }
+            }
+        }
+
+        private int index(long key) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+    }
+}
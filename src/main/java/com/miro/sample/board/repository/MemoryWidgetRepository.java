@@ -3,6 +3,7 @@ package com.miro.sample.board.repository;
 import com.miro.sample.board.model.Widget;
 import jakarta.persistence.EntityNotFoundException;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Profile;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
@@ -12,35 +13,102 @@ import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ConcurrentNavigableMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.OptionalInt;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 
 /**
  * The type Widget in memory repository.
+ *
+ * <p>Readers which need the z order work on a {@link BoardSnapshot}. Every change of the z order is applied to a
+ * copy of the current snapshot and published at once, so a reader sees either all of a multi-widget z shift or none
+ * of it, without taking any lock. The stored widgets are copies of the saved ones and are never changed afterwards.
+ * Widgets are found by id through a primitive keyed map, so a lookup does not box the id.
+ *
+ * <p>Writers which change the z order take the publish lock exclusively and are applied one at a time. An update
+ * which keeps the z of its widget only replaces the widget in its own slot, so these updates share the lock and
+ * publish with a compare and set of the snapshot, and moves of different widgets do not wait for each other.
+ *
+ * <p>With a {@link WidgetJournal} every change is appended to the journal before it is published. With a
+ * {@link WidgetSnapshotStore} the board is written to a snapshot file from time to time. On start the last snapshot is
+ * loaded and only the journal records after it are replayed.
  */
 @Slf4j
 @Repository
 @Transactional
-@Profile("!h2")
+@Profile("!h2 & !offheap & !tiered")
 public class MemoryWidgetRepository implements WidgetRepository {
 
-    private static final AtomicLong widgetId = new AtomicLong(0L);
+    private final AtomicLong widgetId = new AtomicLong(0L);
 
-    private final ConcurrentMap<Long, Widget> widgetsById;
-    private final ConcurrentNavigableMap<Integer, Widget> widgetsByZ;
+    private final LongObjectHashMap<Widget> widgetsById;
+    private final SpatialGrid spatialGrid;
+    private final ReadWriteLock publishLock = new ReentrantReadWriteLock();
+    private final AtomicReference<BoardSnapshot> widgetsByZ;
+    private WidgetJournal journal;
 
     /**
      * Instantiates a new Widget in memory repository.
      */
     public MemoryWidgetRepository() {
-        this.widgetsById = new ConcurrentHashMap<>();
-        this.widgetsByZ = new ConcurrentSkipListMap<>();
+        this.widgetsById = new LongObjectHashMap<>();
+        this.widgetsByZ = new AtomicReference<>(BoardSnapshot.EMPTY);
+        this.spatialGrid = new SpatialGrid();
+    }
+
+    /**
+     * Instantiates a new Widget in memory repository and restores the board from the snapshot and the journal.
+     *
+     * @param journal   the journal to replay and append to
+     * @param snapshots the store of board snapshots
+     */
+    @Autowired
+    public MemoryWidgetRepository(Optional<WidgetJournal> journal, Optional<WidgetSnapshotStore> snapshots) {
+        this();
+        WidgetJournal.Position position = null;
+        Optional<BoardCheckpoint> checkpoint = snapshots.flatMap(WidgetSnapshotStore::load);
+        if (checkpoint.isPresent()) {
+            restore(checkpoint.get());
+            position = checkpoint.get().getJournalPosition();
+        }
+        if (journal.isPresent()) {
+            journal.get().replay(new JournalReplay(), position);
+            this.journal = journal.get();
+        }
+        snapshots.ifPresent(store -> store.schedule(this::checkpoint));
+    }
+
+    /**
+     * Take the current state of board, together with the journal position it corresponds to.
+     *
+     * @return the checkpoint
+     */
+    BoardCheckpoint checkpoint() {
+        publishLock.writeLock().lock();
+        try {
+            return new BoardCheckpoint(widgetsByZ.get(), widgetId.get(), journal == null ? null : journal.position());
+        } finally {
+            publishLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The current state of board. It never changes, later changes are published as new snapshots.
+     *
+     * @return the snapshot
+     */
+    public BoardSnapshot snapshot() {
+        return widgetsByZ.get();
     }
 
     /**
@@ -51,7 +119,8 @@ public class MemoryWidgetRepository implements WidgetRepository {
      */
     @Transactional
     public Widget save(Widget widget) {
-        if (widget.getId() == null) {
+        boolean created = widget.getId() == null;
+        if (created) {
             widget.setId(generateNewId());
             widget.setVersion(0L);
         } else {
@@ -61,16 +130,14 @@ public class MemoryWidgetRepository implements WidgetRepository {
                 throw new ObjectOptimisticLockingFailureException(Widget.class, widget.getId());
             }
             widget.setVersion(oldWidget.getVersion() + 1);
-            widgetsByZ.remove(oldWidget.getZ());
         }
         widget.setModifiedDate(System.currentTimeMillis());
-        widgetsById.put(widget.getId(), widget);
-        widgetsByZ.put(widget.getZ(), widget);
+        store(new Widget(widget), created);
         return widget;
     }
 
     /**
-     * Save all given widgets in the memory.
+     * Save all given widgets in the memory. New widgets are published together as one change of the board.
      *
      * @param entities widgets
      * @param <S>      any class which extends widget
@@ -79,16 +146,31 @@ public class MemoryWidgetRepository implements WidgetRepository {
     @Transactional
     public <S extends Widget> Iterable<S> saveAll(Iterable<S> entities) {
         List<S> result = new ArrayList<>();
-
-        for (S entity : entities) {
-            result.add((S) this.save(entity));
+        entities.forEach(result::add);
+        if (result.stream().anyMatch(widget -> widget.getId() != null)) {
+            result.replaceAll(entity -> (S) this.save(entity));
+            return result;
         }
 
+        long modifiedDate = System.currentTimeMillis();
+        List<Widget> stored = new ArrayList<>(result.size());
+        for (S widget : result) {
+            widget.setId(generateNewId());
+            widget.setVersion(0L);
+            widget.setModifiedDate(modifiedDate);
+            stored.add(new Widget(widget));
+        }
+        publish(board -> {
+            for (Widget widget : stored) {
+                board = link(board, widget);
+            }
+            return board;
+        }, journal -> stored.forEach(widget -> journal.appendSave(widget, true)));
         return result;
     }
 
     public Optional<Widget> findByZ(Integer z) {
-        return Optional.ofNullable(widgetsByZ.get(z));
+        return widgetsByZ.get().findByZ(z);
     }
 
     public Optional<Widget> findById(Long id) {
@@ -96,32 +178,47 @@ public class MemoryWidgetRepository implements WidgetRepository {
     }
 
     public boolean existsById(Long id) {
-        return widgetsById.containsKey(id);
+        return widgetsById.get(id) != null;
     }
 
     public Iterable<Widget> findAll() {
         return widgetsById.values();
     }
 
+    /**
+     * Find a page of widgets ordered by z. The first z of the page is looked up by its rank, then only the widgets of
+     * the page are read. The page and its total come from the same snapshot.
+     *
+     * @param pageable the pageable
+     * @return the page
+     */
     @Override
     public Page<Widget> findAll(Pageable pageable) {
-        List<Widget> list = List.copyOf(widgetsByZ.values());
-        int pageSize = pageable.getPageSize();
-        int pageNo = pageable.getPageNumber();
-        int size = list.size();
-
-        int totalPages = list.size() / pageSize;
-        int max = pageNo >= totalPages ? size : pageSize * (pageNo + 1);
-        int min = pageNo > totalPages ? max : pageSize * pageNo;
+        BoardSnapshot board = widgetsByZ.get();
+        log.trace("pageSize {} ;pageNo {} ;size {} ;revision {}", pageable.getPageSize(), pageable.getPageNumber(),
+            board.size(), board.getRevision());
 
-        log.trace("totalPages{} ;pageSize {} ;pageNo {} ;list size {} ;min {} ;max {}", totalPages, pageSize, pageNo, size, min, max);
+        return new PageImpl<>(board.findPage(pageable.getOffset(), pageable.getPageSize()), pageable, board.size());
+    }
 
-        return new PageImpl<>(list.subList(min, max), pageable, size);
+    @Override
+    public List<Widget> findPageAfter(Integer z, Long id, int limit) {
+        return widgetsByZ.get().findPageAfter(z, id, limit);
     }
 
     @Override
     public Iterable<Widget> findAllByOrderByZAsc() {
-        return widgetsByZ.values();
+        return widgetsByZ.get();
+    }
+
+    /**
+     * Stream the current snapshot. It walks the tree lazily and sees none of the later changes.
+     *
+     * @return the widgets ordered by z
+     */
+    @Override
+    public Stream<Widget> streamAllByOrderByZAsc() {
+        return StreamSupport.stream(widgetsByZ.get().spliterator(), false);
     }
 
     /**
@@ -146,22 +243,64 @@ public class MemoryWidgetRepository implements WidgetRepository {
 
     @Transactional
     public void deleteById(Long id) {
-        Widget deleted = widgetsById.remove(id);
-        widgetsByZ.remove(deleted.getZ());
+        publish(board -> detach(board, widgetsById.remove(id)), journal -> journal.appendDelete(id));
+    }
+
+    /**
+     * Find the widgets intersecting the area through the spatial grid, so only the widgets around the area are
+     * checked.
+     *
+     * @param x1 the left edge, inclusive
+     * @param y1 the top edge, inclusive
+     * @param x2 the right edge, exclusive
+     * @param y2 the bottom edge, exclusive
+     * @return the widgets ordered by z
+     */
+    @Override
+    public List<Widget> findAllIntersecting(Integer x1, Integer y1, Integer x2, Integer y2) {
+        List<Widget> result = new ArrayList<>();
+        for (Long id : spatialGrid.candidates(x1, y1, x2, y2)) {
+            Widget widget = widgetsById.get(id);
+            if (widget != null && SpatialGrid.intersects(widget, x1, y1, x2, y2)) {
+                result.add(widget);
+            }
+        }
+        result.sort(Comparator.comparing(Widget::getZ));
+        return result;
+    }
+
+    /**
+     * Find the widget with the highest z containing the point.
+     *
+     * @param x the x of point
+     * @param y the y of point
+     * @return the topmost widget
+     */
+    @Override
+    public Optional<Widget> findTopmostAt(Integer x, Integer y) {
+        Widget topmost = null;
+        for (Long id : spatialGrid.candidatesAt(x, y)) {
+            Widget widget = widgetsById.get(id);
+            if (widget != null && SpatialGrid.contains(widget, x, y) && (topmost == null || widget.getZ() > topmost.getZ())) {
+                topmost = widget;
+            }
+        }
+        return Optional.ofNullable(topmost);
     }
 
     @Transactional
     public void delete(Widget widget) {
-        Widget deleted = widgetsById.remove(widget.getId());
-        widgetsByZ.remove(deleted.getZ());
+        deleteById(widget.getId());
     }
 
     @Transactional
     public void deleteAllById(Iterable<? extends Long> longs) {
-        for (Long id : longs) {
-            Widget deleted = widgetsById.remove(id);
-            widgetsByZ.remove(deleted.getZ());
-        }
+        publish(board -> {
+            for (Long id : longs) {
+                board = detach(board, widgetsById.remove(id));
+            }
+            return board;
+        }, journal -> longs.forEach(journal::appendDelete));
     }
 
     /**
@@ -182,18 +321,234 @@ public class MemoryWidgetRepository implements WidgetRepository {
      */
     @Transactional
     public void deleteAll() {
-        widgetsById.clear();
-        widgetsByZ.clear();
+        publish(board -> {
+            widgetsById.clear();
+            spatialGrid.clear();
+            return board.clear();
+        }, WidgetJournal::appendClear);
         widgetId.set(0L);
     }
 
     public Integer findMaxZ() {
-        return widgetsByZ.keySet().stream()
-            .max(Integer::compareTo).orElse(0);
+        OptionalInt maxZ = widgetsByZ.get().maxZ();
+        return maxZ.isPresent() ? maxZ.getAsInt() : null;
+    }
+
+    /**
+     * Find the first gap at or above z in the snapshot, without walking the occupied run.
+     *
+     * @param z the z to start from
+     * @return the first free z
+     */
+    public Optional<Integer> findFirstFreeZ(Integer z) {
+        OptionalInt free = widgetsByZ.get().firstFreeZ(z);
+        return free.isPresent() ? Optional.of(free.getAsInt()) : Optional.empty();
+    }
+
+    /**
+     * Move the range from the top down, so the free slot at toZ is taken first and no widget is ever overwritten.
+     * The slot at fromZ is released at the end and the whole shift is published as one snapshot.
+     *
+     * @param fromZ the lowest z to move, inclusive
+     * @param toZ   the highest z to move, exclusive
+     * @return the number of moved widgets
+     */
+    @Transactional
+    public int shiftZ(Integer fromZ, Integer toZ) {
+        return shift(fromZ, toZ, System.currentTimeMillis());
+    }
+
+    private int shift(int fromZ, int toZ, long modifiedDate) {
+        int[] shifted = new int[1];
+        publish(board -> {
+            List<Widget> range = board.findRange(fromZ, toZ);
+            for (int i = range.size() - 1; i >= 0; i--) {
+                Widget widget = range.get(i);
+                Widget moved = new Widget(widget);
+                moved.setZ(widget.getZ() + 1);
+                moved.setVersion(widget.getVersion() + 1);
+                moved.setModifiedDate(modifiedDate);
+                widgetsById.put(moved.getId(), moved);
+                board = board.put(moved);
+            }
+            shifted[0] = range.size();
+            return range.isEmpty() ? board : board.remove(fromZ);
+        }, journal -> journal.appendShift(fromZ, toZ, modifiedDate));
+        return shifted[0];
+    }
+
+    /**
+     * Replace the board with the checkpoint.
+     *
+     * @param checkpoint the checkpoint
+     */
+    void restore(BoardCheckpoint checkpoint) {
+        publishLock.writeLock().lock();
+        try {
+            widgetsById.clear();
+            widgetsById.ensureCapacity(checkpoint.getBoard().size());
+            for (Widget widget : checkpoint.getBoard()) {
+                widgetsById.put(widget.getId(), widget);
+            }
+            spatialGrid.reset(checkpoint.getBoard());
+            widgetsByZ.set(checkpoint.getBoard());
+            widgetId.set(checkpoint.getLastId());
+        } finally {
+            publishLock.writeLock().unlock();
+        }
+    }
+
+    private void store(Widget stored, boolean created) {
+        if (created || !publishInPlace(stored)) {
+            publish(board -> link(board, stored), journal -> journal.appendSave(stored, created));
+        }
+    }
+
+    @Override
+    public DurabilityScope deferDurability() {
+        WidgetJournal target = journal;
+        return target == null ? DurabilityScope.NONE : target.deferDurability();
+    }
+
+    /**
+     * Publish an update which keeps the z of its widget under the shared publish lock. No change of the z order runs
+     * meanwhile, so the slot of widget stays its own and the snapshot only needs a compare and set against other
+     * updates in place. Their journal records may be appended in another order than they are published, which does
+     * not matter as they change different widgets.
+     *
+     * @param stored the stored widget
+     * @return false when the widget is gone or changes its z, it has to be published exclusively
+     */
+    private boolean publishInPlace(Widget stored) {
+        WidgetJournal target = journal;
+        long sequence = 0L;
+        publishLock.readLock().lock();
+        try {
+            Widget oldWidget = widgetsById.get(stored.getId());
+            if (oldWidget == null || !oldWidget.getZ().equals(stored.getZ())) {
+                return false;
+            }
+            if (target != null) {
+                // another update may append right after, waiting for its sequence covers this record as well
+                target.appendSave(stored, false);
+                sequence = target.lastSequence();
+            }
+            widgetsById.put(stored.getId(), stored);
+            spatialGrid.remove(oldWidget);
+            spatialGrid.add(stored);
+            widgetsByZ.updateAndGet(board -> board.put(stored).nextRevision());
+        } finally {
+            publishLock.readLock().unlock();
+        }
+        if (target != null) {
+            target.awaitDurable(sequence);
+        }
+        return true;
+    }
+
+    /**
+     * Put the stored widget into the indexes, in place of its previous state.
+     *
+     * @param board  the board
+     * @param stored the stored widget
+     * @return the changed board
+     */
+    private BoardSnapshot link(BoardSnapshot board, Widget stored) {
+        Widget oldWidget = widgetsById.put(stored.getId(), stored);
+        if (oldWidget != null) {
+            spatialGrid.remove(oldWidget);
+        }
+        spatialGrid.add(stored);
+        if (oldWidget != null && oldWidget.getZ().equals(stored.getZ())) {
+            return board.put(stored);
+        }
+        return unlink(board, oldWidget).put(stored);
+    }
+
+    /**
+     * Remove a deleted widget from the spatial grid and from its z slot.
+     *
+     * @param board  the board
+     * @param widget the deleted widget, may be null
+     * @return the changed board
+     */
+    private BoardSnapshot detach(BoardSnapshot board, Widget widget) {
+        if (widget != null) {
+            spatialGrid.remove(widget);
+        }
+        return unlink(board, widget);
+    }
+
+    /**
+     * Remove the widget from its z slot, unless the slot has been taken by another widget in the meantime.
+     *
+     * @param board  the board
+     * @param widget the widget, may be null
+     * @return the changed board
+     */
+    private static BoardSnapshot unlink(BoardSnapshot board, Widget widget) {
+        if (widget == null) {
+            return board;
+        }
+        boolean linked = board.findByZ(widget.getZ()).filter(w -> w.getId().equals(widget.getId())).isPresent();
+        return linked ? board.remove(widget.getZ()) : board;
+    }
+
+    /**
+     * Apply a change of the z order to the current snapshot and publish the result as the next revision. Changes
+     * are applied one at a time, in the order they are appended to the journal. The caller returns when its record
+     * is durable.
+     *
+     * @param change the change
+     * @param record appends the change to the journal
+     */
+    private void publish(UnaryOperator<BoardSnapshot> change, Consumer<WidgetJournal> record) {
+        WidgetJournal target = journal;
+        long sequence = 0L;
+        publishLock.writeLock().lock();
+        try {
+            if (target != null) {
+                record.accept(target);
+                sequence = target.lastSequence();
+            }
+            widgetsByZ.set(change.apply(widgetsByZ.get()).nextRevision());
+        } finally {
+            publishLock.writeLock().unlock();
+        }
+        if (target != null) {
+            target.awaitDurable(sequence);
+        }
     }
 
     private long generateNewId() {
         return widgetId.incrementAndGet();
     }
 
+    /**
+     * Applies the journal records without appending them again, the journal is not set yet while it is replayed.
+     */
+    private final class JournalReplay implements WidgetJournal.Replay {
+
+        @Override
+        public void save(Widget widget) {
+            store(widget, false);
+            widgetId.accumulateAndGet(widget.getId(), Math::max);
+        }
+
+        @Override
+        public void delete(Long id) {
+            deleteById(id);
+        }
+
+        @Override
+        public void shift(int fromZ, int toZ, long modifiedDate) {
+            MemoryWidgetRepository.this.shift(fromZ, toZ, modifiedDate);
+        }
+
+        @Override
+        public void clear() {
+            deleteAll();
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,358 @@
+package com.miro.sample.board.repository;
+
+import com.miro.sample.board.model.Widget;
+import jakarta.persistence.EntityNotFoundException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Widget repository which keeps the widgets off the heap.
+ *
+ * <p>The fields of widgets are stored in {@link WidgetColumns}, the id and z indexes map to slots of the columns and
+ * are primitive arrays as well, so the heap holds a few arrays and buffers whatever the size of board. {@link Widget}
+ * objects are only created for the caller. Area and point queries go through a {@link SlotGrid} of primitive arrays,
+ * an area over more cells than there are widgets scans the position columns in z order instead. Readers share a lock,
+ * writers take it exclusively.
+ */
+@Slf4j
+@Repository
+@Profile("offheap")
+public class OffHeapWidgetRepository implements WidgetRepository {
+
+    private static final int STREAM_PAGE_SIZE = 1024;
+
+    private final AtomicLong widgetId = new AtomicLong(0L);
+    private final WidgetColumns columns = new WidgetColumns();
+    private final LongIntHashMap slotsById = new LongIntHashMap();
+    private final ZSlotIndex slotsByZ = new ZSlotIndex();
+    private final SlotGrid slotGrid = new SlotGrid(columns);
+    private final Lock readLock;
+    private final Lock writeLock;
+
+    /**
+     * Instantiates a new Widget off-heap repository.
+     */
+    public OffHeapWidgetRepository() {
+        ReadWriteLock lock = new ReentrantReadWriteLock();
+        this.readLock = lock.readLock();
+        this.writeLock = lock.writeLock();
+    }
+
+    /**
+     * Save the widget into its slot, or into a new slot when it is new.
+     *
+     * @param widget widget entity
+     * @return saved widget
+     */
+    @Override
+    public <S extends Widget> S save(S widget) {
+        writeLock.lock();
+        try {
+            int slot;
+            if (widget.getId() == null) {
+                widget.setId(widgetId.incrementAndGet());
+                widget.setVersion(0L);
+                slot = columns.allocate();
+                slotsById.put(widget.getId(), slot);
+            } else {
+                slot = slotsById.get(widget.getId());
+                if (slot == LongIntHashMap.NO_VALUE) {
+                    throw new EntityNotFoundException();
+                }
+                if (widget.getVersion() == null || columns.version(slot) != widget.getVersion()) {
+                    throw new ObjectOptimisticLockingFailureException(Widget.class, widget.getId());
+                }
+                widget.setVersion(widget.getVersion() + 1);
+                int oldZ = columns.z(slot);
+                if (slotsByZ.get(oldZ) == slot) {
+                    slotsByZ.remove(oldZ);
+                }
+                slotGrid.remove(slot);
+            }
+            widget.setModifiedDate(System.currentTimeMillis());
+            columns.write(slot, widget);
+            slotsByZ.put(widget.getZ(), slot);
+            slotGrid.add(slot);
+            return widget;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public <S extends Widget> Iterable<S> saveAll(Iterable<S> entities) {
+        List<S> result = new ArrayList<>();
+        for (S entity : entities) {
+            result.add(save(entity));
+        }
+        return result;
+    }
+
+    @Override
+    public Optional<Widget> findById(Long id) {
+        return read(() -> {
+            int slot = slotsById.get(id);
+            return slot == LongIntHashMap.NO_VALUE ? Optional.empty() : Optional.of(columns.read(slot));
+        });
+    }
+
+    @Override
+    public boolean existsById(Long id) {
+        return read(() -> slotsById.get(id) != LongIntHashMap.NO_VALUE);
+    }
+
+    @Override
+    public Iterable<Widget> findAll() {
+        return findAllByOrderByZAsc();
+    }
+
+    @Override
+    public Iterable<Widget> findAllById(Iterable<Long> ids) {
+        return read(() -> {
+            List<Widget> result = new ArrayList<>();
+            for (Long id : ids) {
+                int slot = slotsById.get(id);
+                if (slot != LongIntHashMap.NO_VALUE) {
+                    result.add(columns.read(slot));
+                }
+            }
+            return result;
+        });
+    }
+
+    @Override
+    public long count() {
+        return read(slotsById::size);
+    }
+
+    @Override
+    public void deleteById(Long id) {
+        writeLock.lock();
+        try {
+            int slot = slotsById.remove(id);
+            if (slot == LongIntHashMap.NO_VALUE) {
+                return;
+            }
+            int z = columns.z(slot);
+            if (slotsByZ.get(z) == slot) {
+                slotsByZ.remove(z);
+            }
+            slotGrid.remove(slot);
+            columns.release(slot);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void delete(Widget widget) {
+        deleteById(widget.getId());
+    }
+
+    @Override
+    public void deleteAllById(Iterable<? extends Long> ids) {
+        ids.forEach(this::deleteById);
+    }
+
+    @Override
+    public void deleteAll(Iterable<? extends Widget> entities) {
+        entities.forEach(this::delete);
+    }
+
+    @Override
+    public void deleteAll() {
+        writeLock.lock();
+        try {
+            slotsById.clear();
+            slotsByZ.clear();
+            slotGrid.clear();
+            columns.clear();
+            widgetId.set(0L);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public Optional<Widget> findByZ(Integer z) {
+        return read(() -> {
+            int slot = slotsByZ.get(z);
+            return slot == ZSlotIndex.NO_SLOT ? Optional.empty() : Optional.of(columns.read(slot));
+        });
+    }
+
+    @Override
+    public Integer findMaxZ() {
+        return read(() -> {
+            OptionalInt maxZ = slotsByZ.maxZ();
+            return maxZ.isPresent() ? maxZ.getAsInt() : null;
+        });
+    }
+
+    @Override
+    public Optional<Integer> findFirstFreeZ(Integer z) {
+        return read(() -> {
+            OptionalInt free = slotsByZ.firstFreeZ(z);
+            return free.isPresent() ? Optional.of(free.getAsInt()) : Optional.empty();
+        });
+    }
+
+    /**
+     * Shift the z values in place, the order of index does not change.
+     *
+     * @param fromZ the lowest z to move, inclusive
+     * @param toZ   the highest z to move, exclusive
+     * @return the number of moved widgets
+     */
+    @Override
+    public int shiftZ(Integer fromZ, Integer toZ) {
+        writeLock.lock();
+        try {
+            long modifiedDate = System.currentTimeMillis();
+            return slotsByZ.shift(fromZ, toZ, (z, slot) -> {
+                columns.moveZ(slot, z, modifiedDate);
+                return true;
+            });
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public Iterable<Widget> findAllByOrderByZAsc() {
+        return read(() -> {
+            List<Widget> result = new ArrayList<>(slotsByZ.size());
+            slotsByZ.forEachFrom(Integer.MIN_VALUE, (z, slot) -> result.add(columns.read(slot)));
+            return result;
+        });
+    }
+
+    /**
+     * Stream the widgets page by page, every page is read under the lock with a (z, id) seek after the last widget
+     * of previous one. Only one page is on the heap at a time, and changes made between two pages may be seen.
+     *
+     * @return the widgets ordered by z
+     */
+    @Override
+    public Stream<Widget> streamAllByOrderByZAsc() {
+        Iterator<Widget> pages = new Iterator<>() {
+            private List<Widget> page = findPageAfter(Integer.MIN_VALUE, 0L, STREAM_PAGE_SIZE);
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                if (index == page.size() && page.size() == STREAM_PAGE_SIZE) {
+                    Widget last = page.get(index - 1);
+                    page = findPageAfter(last.getZ(), last.getId(), STREAM_PAGE_SIZE);
+                    index = 0;
+                }
+                return index < page.size();
+            }
+
+            @Override
+            public Widget next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.get(index++);
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pages, Spliterator.ORDERED), false);
+    }
+
+    @Override
+    public Page<Widget> findAll(Pageable pageable) {
+        return read(() -> {
+            List<Widget> content = new ArrayList<>((int) Math.max(0L,
+                Math.min(pageable.getPageSize(), slotsByZ.size() - pageable.getOffset())));
+            slotsByZ.forEachFromRank(pageable.getOffset(), (z, slot) -> {
+                content.add(columns.read(slot));
+                return content.size() < pageable.getPageSize();
+            });
+            return new PageImpl<>(content, pageable, slotsByZ.size());
+        });
+    }
+
+    @Override
+    public List<Widget> findPageAfter(Integer z, Long id, int limit) {
+        return read(() -> {
+            List<Widget> page = new ArrayList<>(limit);
+            slotsByZ.forEachFrom(z, (slotZ, slot) -> {
+                if (slotZ != z || columns.id(slot) > id) {
+                    page.add(columns.read(slot));
+                }
+                return page.size() < limit;
+            });
+            return page;
+        });
+    }
+
+    /**
+     * Find the widgets intersecting the area through the slot grid, sorted by z as primitive (z, slot) pairs. An area
+     * over more cells than there are widgets scans the board in z order instead.
+     */
+    @Override
+    public List<Widget> findAllIntersecting(Integer x1, Integer y1, Integer x2, Integer y2) {
+        return read(() -> {
+            List<Widget> result = new ArrayList<>();
+            if (SlotGrid.cellCount(x1, y1, x2, y2) > slotsById.size()) {
+                slotsByZ.forEachFrom(Integer.MIN_VALUE, (z, slot) -> {
+                    if (columns.intersects(slot, x1, y1, x2, y2)) {
+                        result.add(columns.read(slot));
+                    }
+                    return true;
+                });
+                return result;
+            }
+            int[] slots = slotGrid.intersecting(x1, y1, x2, y2);
+            long[] zSlots = new long[slots.length];
+            for (int i = 0; i < slots.length; i++) {
+                zSlots[i] = (long) columns.z(slots[i]) << Integer.SIZE | slots[i];
+            }
+            Arrays.sort(zSlots);
+            for (long zSlot : zSlots) {
+                result.add(columns.read((int) zSlot));
+            }
+            return result;
+        });
+    }
+
+    @Override
+    public Optional<Widget> findTopmostAt(Integer x, Integer y) {
+        return read(() -> {
+            int slot = slotGrid.topmostAt(x, y);
+            return slot == SlotGrid.NO_SLOT ? Optional.empty() : Optional.of(columns.read(slot));
+        });
+    }
+
+    private <T> T read(Supplier<T> query) {
+        readLock.lock();
+        try {
+            return query.get();
+        } finally {
+            readLock.unlock();
+        }
+    }
+}
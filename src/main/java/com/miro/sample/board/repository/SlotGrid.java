@@ -0,0 +1,241 @@
+package com.miro.sample.board.repository;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Uniform grid over the board which maps every cell to the slots of {@link WidgetColumns} overlapping it, what
+ * {@link SpatialGrid} is to the heap repositories. The cells are a {@link LongIntHashMap} to the first entry of a
+ * linked list kept in two int arrays, so the grid adds a few arrays to the heap and no object per widget. Widgets
+ * which would cover too many cells are kept aside and checked by every query instead.
+ *
+ * <p>The geometry of a slot is read from the columns, so a slot has to be removed before the widget in it is
+ * overwritten or released. Queries do not change the grid and may run in parallel, writes may not. It is not thread
+ * safe.
+ */
+final class SlotGrid {
+
+    static final int NO_SLOT = -1;
+
+    private static final int CELL_SHIFT = 8;
+    private static final long MAX_CELLS_PER_WIDGET = 256;
+    /**
+     * The cells of an int coordinate and of an int plus an int extent are in [-2^23, 2^24], offset they are positive
+     * and fit 27 bits.
+     */
+    private static final long CELL_OFFSET = 1L << 24;
+    private static final int CELL_BITS = 27;
+    private static final int NO_ENTRY = LongIntHashMap.NO_VALUE;
+    private static final int MIN_CAPACITY = 16;
+
+    private final WidgetColumns columns;
+    private final LongIntHashMap firstEntries = new LongIntHashMap();
+    private int[] entrySlots = new int[MIN_CAPACITY];
+    private int[] nextEntries = new int[MIN_CAPACITY];
+    private int entryCount;
+    private int freeEntry = NO_ENTRY;
+    private int[] oversized = new int[MIN_CAPACITY];
+    private int oversizedCount;
+
+    /**
+     * Instantiates a new grid.
+     *
+     * @param columns the columns of the indexed slots
+     */
+    SlotGrid(WidgetColumns columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * Add the slot to all cells its widget overlaps.
+     *
+     * @param slot the slot
+     */
+    void add(int slot) {
+        if (isOversized(slot)) {
+            if (oversizedCount == oversized.length) {
+                oversized = Arrays.copyOf(oversized, oversizedCount << 1);
+            }
+            oversized[oversizedCount++] = slot;
+            return;
+        }
+        forEachCell(slot, key -> link(key, slot));
+    }
+
+    /**
+     * Remove the slot from all cells its widget overlaps, the widget must still be in the slot.
+     *
+     * @param slot the slot
+     */
+    void remove(int slot) {
+        if (isOversized(slot)) {
+            for (int i = 0; i < oversizedCount; i++) {
+                if (oversized[i] == slot) {
+                    oversized[i] = oversized[--oversizedCount];
+                    return;
+                }
+            }
+            return;
+        }
+        forEachCell(slot, key -> unlink(key, slot));
+    }
+
+    /**
+     * Remove all slots and release the memory of a grown grid.
+     */
+    void clear() {
+        firstEntries.clear();
+        entrySlots = new int[MIN_CAPACITY];
+        nextEntries = new int[MIN_CAPACITY];
+        entryCount = 0;
+        freeEntry = NO_ENTRY;
+        oversized = new int[MIN_CAPACITY];
+        oversizedCount = 0;
+    }
+
+    /**
+     * Number of cells the area [x1, x2) x [y1, y2) covers, a query over more cells than there are widgets is cheaper
+     * as a scan of all.
+     *
+     * @param x1 the left edge, inclusive
+     * @param y1 the top edge, inclusive
+     * @param x2 the right edge, exclusive
+     * @param y2 the bottom edge, exclusive
+     * @return the number of cells
+     */
+    static long cellCount(int x1, int y1, int x2, int y2) {
+        return Math.max(0L, cell(x2 - 1L) - cell(x1) + 1) * Math.max(0L, cell(y2 - 1L) - cell(y1) + 1);
+    }
+
+    /**
+     * Find the slots of widgets intersecting the area [x1, x2) x [y1, y2). A widget over many cells is found in each
+     * of them, it is only taken in the first cell of the area it overlaps, so every slot is returned once.
+     *
+     * @param x1 the left edge, inclusive
+     * @param y1 the top edge, inclusive
+     * @param x2 the right edge, exclusive
+     * @param y2 the bottom edge, exclusive
+     * @return the slots in no particular order
+     */
+    int[] intersecting(int x1, int y1, int x2, int y2) {
+        int[] found = new int[MIN_CAPACITY];
+        int count = 0;
+        for (int i = 0; i < oversizedCount; i++) {
+            if (columns.intersects(oversized[i], x1, y1, x2, y2)) {
+                found = append(found, count++, oversized[i]);
+            }
+        }
+        long fromX = cell(x1);
+        long fromY = cell(y1);
+        long toX = cell(x2 - 1L);
+        long toY = cell(y2 - 1L);
+        for (long cellX = fromX; cellX <= toX; cellX++) {
+            for (long cellY = fromY; cellY <= toY; cellY++) {
+                for (int entry = firstEntries.get(key(cellX, cellY)); entry != NO_ENTRY; entry = nextEntries[entry]) {
+                    int slot = entrySlots[entry];
+                    if (cellX == Math.max(cell(columns.x(slot)), fromX)
+                        && cellY == Math.max(cell(columns.y(slot)), fromY)
+                        && columns.intersects(slot, x1, y1, x2, y2)) {
+                        found = append(found, count++, slot);
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Find the slot of the widget with the highest z containing the point.
+     *
+     * @param x the x of point
+     * @param y the y of point
+     * @return the slot, or {@link #NO_SLOT}
+     */
+    int topmostAt(int x, int y) {
+        int topmost = NO_SLOT;
+        for (int i = 0; i < oversizedCount; i++) {
+            topmost = higher(topmost, oversized[i], x, y);
+        }
+        for (int entry = firstEntries.get(key(cell(x), cell(y))); entry != NO_ENTRY; entry = nextEntries[entry]) {
+            topmost = higher(topmost, entrySlots[entry], x, y);
+        }
+        return topmost;
+    }
+
+    private int higher(int topmost, int slot, int x, int y) {
+        if (!columns.intersects(slot, x, y, x + 1L, y + 1L)) {
+            return topmost;
+        }
+        return topmost == NO_SLOT || columns.z(slot) > columns.z(topmost) ? slot : topmost;
+    }
+
+    private void link(long key, int slot) {
+        int entry;
+        if (freeEntry != NO_ENTRY) {
+            entry = freeEntry;
+            freeEntry = nextEntries[entry];
+        } else {
+            if (entryCount == entrySlots.length) {
+                entrySlots = Arrays.copyOf(entrySlots, entryCount << 1);
+                nextEntries = Arrays.copyOf(nextEntries, entryCount << 1);
+            }
+            entry = entryCount++;
+        }
+        entrySlots[entry] = slot;
+        nextEntries[entry] = firstEntries.get(key);
+        firstEntries.put(key, entry);
+    }
+
+    private void unlink(long key, int slot) {
+        int previous = NO_ENTRY;
+        for (int entry = firstEntries.get(key); entry != NO_ENTRY; previous = entry, entry = nextEntries[entry]) {
+            if (entrySlots[entry] != slot) {
+                continue;
+            }
+            int next = nextEntries[entry];
+            if (previous != NO_ENTRY) {
+                nextEntries[previous] = next;
+            } else if (next == NO_ENTRY) {
+                firstEntries.remove(key);
+            } else {
+                firstEntries.put(key, next);
+            }
+            nextEntries[entry] = freeEntry;
+            freeEntry = entry;
+            return;
+        }
+    }
+
+    private boolean isOversized(int slot) {
+        long width = cell(columns.x(slot) + (long) columns.width(slot) - 1) - cell(columns.x(slot)) + 1;
+        long height = cell(columns.y(slot) + (long) columns.height(slot) - 1) - cell(columns.y(slot)) + 1;
+        return width * height > MAX_CELLS_PER_WIDGET;
+    }
+
+    private void forEachCell(int slot, LongConsumer action) {
+        long toX = cell(columns.x(slot) + (long) columns.width(slot) - 1);
+        long toY = cell(columns.y(slot) + (long) columns.height(slot) - 1);
+        for (long cellX = cell(columns.x(slot)); cellX <= toX; cellX++) {
+            for (long cellY = cell(columns.y(slot)); cellY <= toY; cellY++) {
+                action.accept(key(cellX, cellY));
+            }
+        }
+    }
+
+    private static int[] append(int[] slots, int index, int slot) {
+        int[] target = index == slots.length ? Arrays.copyOf(slots, index << 1) : slots;
+        target[index] = slot;
+        return target;
+    }
+
+    private static long cell(long coordinate) {
+        return coordinate >> CELL_SHIFT;
+    }
+
+    /**
+     * Key of a cell, positive as {@link LongIntHashMap} needs it.
+     */
+    private static long key(long cellX, long cellY) {
+        return ((cellX + CELL_OFFSET) << CELL_BITS | (cellY + CELL_OFFSET)) + 1;
+    }
+}
@@ -0,0 +1,231 @@
+package com.miro.sample.board.repository;
+
+import com.miro.sample.board.model.Widget;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongConsumer;
+
+/**
+ * Uniform grid over the board which maps every cell to the ids of widgets overlapping it. A widget occupies
+ * [x, x + width) x [y, y + height). Widgets which would cover too many cells are kept aside and checked by every
+ * query instead, so a single huge widget can not blow up the grid.
+ *
+ * <p>A cell holds an immutable array of ids which is replaced atomically on every change, so widgets may be added and
+ * removed in parallel as long as every widget is changed by one thread at a time, and readers never lock. Most cells
+ * hold one or two widgets, so an array costs a fraction of a set per cell.
+ */
+class SpatialGrid {
+
+    private static final int CELL_SHIFT = 8;
+    private static final long MAX_CELLS_PER_WIDGET = 256;
+
+    private volatile ConcurrentMap<Long, long[]> cells = new ConcurrentHashMap<>();
+    private volatile Set<Long> oversized = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Add the widget to all cells it overlaps.
+     *
+     * @param widget the widget
+     */
+    void add(Widget widget) {
+        long id = widget.getId();
+        if (isOversized(widget)) {
+            oversized.add(id);
+            return;
+        }
+        forEachCell(widget, key -> cells.compute(key, (k, ids) -> with(ids, id)));
+    }
+
+    /**
+     * Remove the widget from all cells it overlaps, the geometry must be the one it was added with.
+     *
+     * @param widget the widget
+     */
+    void remove(Widget widget) {
+        long id = widget.getId();
+        if (isOversized(widget)) {
+            oversized.remove(id);
+            return;
+        }
+        forEachCell(widget, key -> cells.computeIfPresent(key, (k, ids) -> without(ids, id)));
+    }
+
+    /**
+     * Remove all widgets.
+     */
+    void clear() {
+        cells = new ConcurrentHashMap<>();
+        oversized = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Replace all widgets at once. The cells are counted first, so the new grid is sized once instead of growing
+     * through every doubling, and it is published only when complete.
+     *
+     * @param widgets the widgets
+     */
+    void reset(Iterable<Widget> widgets) {
+        long cellCount = 0;
+        for (Widget widget : widgets) {
+            if (!isOversized(widget)) {
+                cellCount += (cell(widget.getX() + (long) widget.getWidth() - 1) - cell(widget.getX()) + 1)
+                    * (cell(widget.getY() + (long) widget.getHeight() - 1) - cell(widget.getY()) + 1);
+            }
+        }
+        ConcurrentMap<Long, long[]> built = new ConcurrentHashMap<>((int) Math.min(cellCount, 1 << 30));
+        Set<Long> builtOversized = ConcurrentHashMap.newKeySet();
+        for (Widget widget : widgets) {
+            long id = widget.getId();
+            if (isOversized(widget)) {
+                builtOversized.add(id);
+            } else {
+                forEachCell(widget, key -> built.compute(key, (k, ids) -> with(ids, id)));
+            }
+        }
+        cells = built;
+        oversized = builtOversized;
+    }
+
+    /**
+     * Find the ids of widgets which may intersect the area [x1, x2) x [y1, y2). The caller has to check the exact
+     * geometry with {@link #intersects(Widget, int, int, int, int)}.
+     *
+     * @param x1 the left edge, inclusive
+     * @param y1 the top edge, inclusive
+     * @param x2 the right edge, exclusive
+     * @param y2 the bottom edge, exclusive
+     * @return the candidate ids
+     */
+    Set<Long> candidates(int x1, int y1, int x2, int y2) {
+        Set<Long> candidates = new HashSet<>(oversized);
+        ConcurrentMap<Long, long[]> cells = this.cells;
+        long fromX = cell(x1);
+        long fromY = cell(y1);
+        long toX = cell(x2 - 1L);
+        long toY = cell(y2 - 1L);
+        if ((toX - fromX + 1) * (toY - fromY + 1) > cells.size()) {
+            for (Map.Entry<Long, long[]> entry : cells.entrySet()) {
+                long cellX = entry.getKey() >> 32;
+                long cellY = (int) entry.getKey().longValue();
+                if (cellX >= fromX && cellX <= toX && cellY >= fromY && cellY <= toY) {
+                    addAll(candidates, entry.getValue());
+                }
+            }
+            return candidates;
+        }
+        for (long cellX = fromX; cellX <= toX; cellX++) {
+            for (long cellY = fromY; cellY <= toY; cellY++) {
+                addAll(candidates, cells.get(key(cellX, cellY)));
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Find the ids of widgets which may contain the point. The caller has to check the exact geometry with
+     * {@link #contains(Widget, int, int)}.
+     *
+     * @param x the x of point
+     * @param y the y of point
+     * @return the candidate ids
+     */
+    Set<Long> candidatesAt(int x, int y) {
+        Set<Long> candidates = new HashSet<>(oversized);
+        addAll(candidates, cells.get(key(cell(x), cell(y))));
+        return candidates;
+    }
+
+    /**
+     * Check whether the widget contains the point.
+     *
+     * @param widget the widget
+     * @param x      the x of point
+     * @param y      the y of point
+     * @return true when the point is inside the widget
+     */
+    static boolean contains(Widget widget, int x, int y) {
+        return widget.getX() <= x && (long) widget.getX() + widget.getWidth() > x
+            && widget.getY() <= y && (long) widget.getY() + widget.getHeight() > y;
+    }
+
+    /**
+     * Check whether the widget intersects the area [x1, x2) x [y1, y2).
+     *
+     * @param widget the widget
+     * @param x1     the left edge, inclusive
+     * @param y1     the top edge, inclusive
+     * @param x2     the right edge, exclusive
+     * @param y2     the bottom edge, exclusive
+     * @return true when they intersect
+     */
+    static boolean intersects(Widget widget, int x1, int y1, int x2, int y2) {
+        return widget.getX() < x2 && (long) widget.getX() + widget.getWidth() > x1
+            && widget.getY() < y2 && (long) widget.getY() + widget.getHeight() > y1;
+    }
+
+    private static boolean isOversized(Widget widget) {
+        long width = cell(widget.getX() + (long) widget.getWidth() - 1) - cell(widget.getX()) + 1;
+        long height = cell(widget.getY() + (long) widget.getHeight() - 1) - cell(widget.getY()) + 1;
+        return width * height > MAX_CELLS_PER_WIDGET;
+    }
+
+    private static long[] with(long[] ids, long id) {
+        if (ids == null) {
+            return new long[] {id};
+        }
+        for (long existing : ids) {
+            if (existing == id) {
+                return ids;
+            }
+        }
+        long[] added = Arrays.copyOf(ids, ids.length + 1);
+        added[ids.length] = id;
+        return added;
+    }
+
+    private static long[] without(long[] ids, long id) {
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == id) {
+                if (ids.length == 1) {
+                    return null;
+                }
+                long[] removed = new long[ids.length - 1];
+                System.arraycopy(ids, 0, removed, 0, i);
+                System.arraycopy(ids, i + 1, removed, i, ids.length - i - 1);
+                return removed;
+            }
+        }
+        return ids;
+    }
+
+    private static void addAll(Set<Long> candidates, long[] ids) {
+        if (ids != null) {
+            for (long id : ids) {
+                candidates.add(id);
+            }
+        }
+    }
+
+    private static void forEachCell(Widget widget, LongConsumer action) {
+        long toX = cell(widget.getX() + (long) widget.getWidth() - 1);
+        long toY = cell(widget.getY() + (long) widget.getHeight() - 1);
+        for (long cellX = cell(widget.getX()); cellX <= toX; cellX++) {
+            for (long cellY = cell(widget.getY()); cellY <= toY; cellY++) {
+                action.accept(key(cellX, cellY));
+            }
+        }
+    }
+
+    private static long cell(long coordinate) {
+        return coordinate >> CELL_SHIFT;
+    }
+
+    private static long key(long cellX, long cellY) {
+        return (cellX << 32) | (cellY & 0xFFFFFFFFL);
+    }
+}
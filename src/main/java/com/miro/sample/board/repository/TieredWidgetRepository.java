@@ -0,0 +1,133 @@
+package com.miro.sample.board.repository;
+
+import com.miro.sample.board.model.Widget;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Widget repository which serves all reads and writes from the memory tier and persists the board to the database
+ * behind them.
+ *
+ * <p>On start the board is loaded from {@link DatabaseWidgetRepository}. Every change is applied in memory as with
+ * {@link MemoryWidgetRepository}, and the ids of the changed widgets are handed to a {@link WidgetWriteBehind}, which
+ * writes them to the database in coalesced batches. The queue is drained on shutdown.
+ */
+@Slf4j
+@Primary
+@Repository
+@Profile("tiered")
+public class TieredWidgetRepository extends MemoryWidgetRepository implements DisposableBean {
+
+    private final WidgetWriteBehind writeBehind;
+
+    /**
+     * Instantiates a new tiered widget repository and loads the board from the database.
+     *
+     * @param database            the database repository
+     * @param jdbcTemplate        the database access of write-behind
+     * @param transactionManager  the transaction manager
+     * @param flushIntervalMillis the interval of flushes
+     * @param batchSize           the size of write batches
+     * @param queueCapacity       the number of queued changes after which writers wait
+     */
+    public TieredWidgetRepository(DatabaseWidgetRepository database, JdbcTemplate jdbcTemplate,
+                                  PlatformTransactionManager transactionManager,
+                                  @Value("${widget.tiered.flush-interval-ms:100}") long flushIntervalMillis,
+                                  @Value("${widget.tiered.batch-size:500}") int batchSize,
+                                  @Value("${widget.tiered.queue-capacity:100000}") int queueCapacity) {
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        BoardCheckpoint loaded = readOnly.execute(status -> {
+            try (Stream<Widget> widgets = database.streamAllByOrderByZAsc()) {
+                List<Widget> board = widgets.toList();
+                long lastId = board.stream().mapToLong(Widget::getId).max().orElse(0L);
+                return new BoardCheckpoint(BoardSnapshot.ofSorted(board, 0L), lastId, null);
+            }
+        });
+        restore(loaded);
+        log.info("Loaded {} widgets from the database", loaded.getBoard().size());
+        this.writeBehind = new WidgetWriteBehind(jdbcTemplate, new TransactionTemplate(transactionManager),
+            this::findById, flushIntervalMillis, batchSize, queueCapacity);
+    }
+
+    /**
+     * Write all queued changes to the database now.
+     */
+    void flush() {
+        writeBehind.flush();
+    }
+
+    @Override
+    public Widget save(Widget widget) {
+        Widget saved = super.save(widget);
+        writeBehind.changed(saved.getId());
+        return saved;
+    }
+
+    @Override
+    public <S extends Widget> Iterable<S> saveAll(Iterable<S> entities) {
+        Iterable<S> saved = super.saveAll(entities);
+        saved.forEach(widget -> writeBehind.changed(widget.getId()));
+        return saved;
+    }
+
+    @Override
+    public void deleteById(Long id) {
+        super.deleteById(id);
+        writeBehind.changed(id);
+    }
+
+    @Override
+    public void deleteAllById(Iterable<? extends Long> ids) {
+        super.deleteAllById(ids);
+        ids.forEach(writeBehind::changed);
+    }
+
+    @Override
+    public void deleteAll() {
+        super.deleteAll();
+        writeBehind.cleared();
+    }
+
+    /**
+     * Shift in memory and queue the moved widgets, which are at fromZ + 1 to toZ afterwards.
+     *
+     * @param fromZ the lowest z to move, inclusive
+     * @param toZ   the highest z to move, exclusive
+     * @return the number of moved widgets
+     */
+    @Override
+    public int shiftZ(Integer fromZ, Integer toZ) {
+        int shifted = super.shiftZ(fromZ, toZ);
+        if (shifted > 0) {
+            Iterator<Widget> moved = snapshot().iteratorFrom(fromZ + 1);
+            while (moved.hasNext()) {
+                Widget widget = moved.next();
+                if (widget.getZ() > toZ) {
+                    break;
+                }
+                writeBehind.changed(widget.getId());
+            }
+        }
+        return shifted;
+    }
+
+    /**
+     * Drain the write-behind queue.
+     */
+    @Override
+    public void destroy() {
+        writeBehind.close();
+    }
+}
@@ -0,0 +1,172 @@
+package com.miro.sample.board.repository;
+
+import com.miro.sample.board.model.Widget;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Off-heap storage of widget fields, one column per field. The columns live in direct buffers of a fixed number of
+ * slots each, so growing never copies the stored widgets, and the garbage collector sees one object per chunk instead
+ * of one per widget. Released slots are reused. It is not thread safe.
+ */
+final class WidgetColumns {
+
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_SLOTS = 1 << CHUNK_SHIFT;
+    private static final int SLOT_MASK = CHUNK_SLOTS - 1;
+
+    private static final int ID = 0;
+    private static final int VERSION = ID + Long.BYTES * CHUNK_SLOTS;
+    private static final int MODIFIED_DATE = VERSION + Long.BYTES * CHUNK_SLOTS;
+    private static final int HEIGHT = MODIFIED_DATE + Long.BYTES * CHUNK_SLOTS;
+    private static final int WIDTH = HEIGHT + Integer.BYTES * CHUNK_SLOTS;
+    private static final int X = WIDTH + Integer.BYTES * CHUNK_SLOTS;
+    private static final int Y = X + Integer.BYTES * CHUNK_SLOTS;
+    private static final int Z = Y + Integer.BYTES * CHUNK_SLOTS;
+    private static final int CHUNK_BYTES = Z + Integer.BYTES * CHUNK_SLOTS;
+
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int nextSlot;
+
+    /**
+     * Take a slot for a new widget.
+     *
+     * @return the slot
+     */
+    int allocate() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (nextSlot == chunks.size() * CHUNK_SLOTS) {
+            chunks.add(ByteBuffer.allocateDirect(CHUNK_BYTES));
+        }
+        return nextSlot++;
+    }
+
+    /**
+     * Give the slot of a deleted widget back.
+     *
+     * @param slot the slot
+     */
+    void release(int slot) {
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount << 1);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * Release all slots. The chunks are kept for later widgets.
+     */
+    void clear() {
+        freeCount = 0;
+        nextSlot = 0;
+    }
+
+    /**
+     * Write all fields of the widget to the slot.
+     *
+     * @param slot   the slot
+     * @param widget the widget
+     */
+    void write(int slot, Widget widget) {
+        ByteBuffer chunk = chunk(slot);
+        int index = slot & SLOT_MASK;
+        chunk.putLong(ID + index * Long.BYTES, widget.getId());
+        chunk.putLong(VERSION + index * Long.BYTES, widget.getVersion());
+        chunk.putLong(MODIFIED_DATE + index * Long.BYTES, widget.getModifiedDate());
+        chunk.putInt(HEIGHT + index * Integer.BYTES, widget.getHeight());
+        chunk.putInt(WIDTH + index * Integer.BYTES, widget.getWidth());
+        chunk.putInt(X + index * Integer.BYTES, widget.getX());
+        chunk.putInt(Y + index * Integer.BYTES, widget.getY());
+        chunk.putInt(Z + index * Integer.BYTES, widget.getZ());
+    }
+
+    /**
+     * Create a widget from the fields in the slot.
+     *
+     * @param slot the slot
+     * @return a new widget
+     */
+    Widget read(int slot) {
+        ByteBuffer chunk = chunk(slot);
+        int index = slot & SLOT_MASK;
+        return new Widget(
+            chunk.getLong(ID + index * Long.BYTES),
+            chunk.getLong(VERSION + index * Long.BYTES),
+            chunk.getInt(HEIGHT + index * Integer.BYTES),
+            chunk.getInt(WIDTH + index * Integer.BYTES),
+            chunk.getInt(X + index * Integer.BYTES),
+            chunk.getInt(Y + index * Integer.BYTES),
+            chunk.getInt(Z + index * Integer.BYTES),
+            chunk.getLong(MODIFIED_DATE + index * Long.BYTES));
+    }
+
+    long id(int slot) {
+        return chunk(slot).getLong(ID + (slot & SLOT_MASK) * Long.BYTES);
+    }
+
+    long version(int slot) {
+        return chunk(slot).getLong(VERSION + (slot & SLOT_MASK) * Long.BYTES);
+    }
+
+    int x(int slot) {
+        return chunk(slot).getInt(X + (slot & SLOT_MASK) * Integer.BYTES);
+    }
+
+    int y(int slot) {
+        return chunk(slot).getInt(Y + (slot & SLOT_MASK) * Integer.BYTES);
+    }
+
+    int width(int slot) {
+        return chunk(slot).getInt(WIDTH + (slot & SLOT_MASK) * Integer.BYTES);
+    }
+
+    int height(int slot) {
+        return chunk(slot).getInt(HEIGHT + (slot & SLOT_MASK) * Integer.BYTES);
+    }
+
+    int z(int slot) {
+        return chunk(slot).getInt(Z + (slot & SLOT_MASK) * Integer.BYTES);
+    }
+
+    /**
+     * Move the widget in the slot to a new z as a change of its own, with a new version.
+     *
+     * @param slot         the slot
+     * @param z            the new z
+     * @param modifiedDate the modified date
+     */
+    void moveZ(int slot, int z, long modifiedDate) {
+        ByteBuffer chunk = chunk(slot);
+        int index = slot & SLOT_MASK;
+        chunk.putInt(Z + index * Integer.BYTES, z);
+        chunk.putLong(VERSION + index * Long.BYTES, chunk.getLong(VERSION + index * Long.BYTES) + 1);
+        chunk.putLong(MODIFIED_DATE + index * Long.BYTES, modifiedDate);
+    }
+
+    /**
+     * Check whether the widget in the slot intersects the area [x1, x2) x [y1, y2).
+     *
+     * @param slot the slot
+     * @param x1   the left edge, inclusive
+     * @param y1   the top edge, inclusive
+     * @param x2   the right edge, exclusive
+     * @param y2   the bottom edge, exclusive
+     * @return true when they intersect
+     */
+    boolean intersects(int slot, long x1, long y1, long x2, long y2) {
+        int x = x(slot);
+        int y = y(slot);
+        return x < x2 && (long) x + width(slot) > x1 && y < y2 && (long) y + height(slot) > y1;
+    }
+
+    private ByteBuffer chunk(int slot) {
+        return chunks.get(slot >>> CHUNK_SHIFT);
+    }
+}
@@ -0,0 +1,545 @@
+package com.miro.sample.board.repository;
+
+import com.miro.sample.board.model.Widget;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of the in-memory board.
+ *
+ * <p>Every mutation of {@link MemoryWidgetRepository} is appended as a small binary record before it is applied, and
+ * the journal is replayed when the repository starts. Records are written to segment files of a bounded size, a
+ * record is {@code [length][crc32][type][fields]} so a torn write at the end of the last segment is detected and cut
+ * off on replay. When a write is acknowledged depends on the {@link FsyncPolicy}.
+ */
+@Slf4j
+@Component
+@Profile("!h2 & !offheap & !tiered")
+@ConditionalOnProperty(name = "widget.journal.enabled", havingValue = "true")
+public class WidgetJournal implements DisposableBean {
+
+    private static final int MAGIC = 0x57414C31;
+    private static final int HEADER_SIZE = Integer.BYTES;
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES * 2;
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    private static final byte CREATE = 1;
+    private static final byte UPDATE = 2;
+    private static final byte DELETE = 3;
+    private static final byte SHIFT = 4;
+    private static final byte CLEAR = 5;
+
+    /**
+     * When an appended record is made durable.
+     */
+    public enum FsyncPolicy {
+        /**
+         * Every write waits for an fsync, concurrent writers share one.
+         */
+        ALWAYS,
+        /**
+         * Writes wait for the next group commit, which forces the journal every few milliseconds.
+         */
+        GROUP,
+        /**
+         * Writes do not wait, the operating system flushes the journal when it wants to.
+         */
+        OS
+    }
+
+    /**
+     * A position in the journal, between two records.
+     */
+    @lombok.Value
+    static class Position {
+        long segment;
+        long offset;
+    }
+
+    /**
+     * Receives the records of the journal on replay.
+     */
+    interface Replay {
+        void save(Widget widget);
+
+        void delete(Long id);
+
+        void shift(int fromZ, int toZ, long modifiedDate);
+
+        void clear();
+    }
+
+    private final Path directory;
+    private final FsyncPolicy fsyncPolicy;
+    private final long segmentSize;
+    private final ScheduledExecutorService groupCommit;
+    private final ByteBuffer record = ByteBuffer.allocate(64);
+    private final CRC32 crc = new CRC32();
+    private final Object forceLock = new Object();
+    private final ThreadLocal<long[]> deferredSequence = new ThreadLocal<>();
+
+    private FileChannel channel;
+    private long segmentIndex;
+    private long segmentPosition;
+    private long appendedSequence;
+    private long durableSequence;
+
+    /**
+     * Instantiates a new Widget journal. It has to be replayed before anything is appended.
+     *
+     * @param directory         the directory of segment files
+     * @param fsyncPolicy       when a record is made durable
+     * @param groupCommitMillis the interval of group commits
+     * @param segmentSize       the size after which a new segment is started
+     */
+    public WidgetJournal(@Value("${widget.journal.directory:journal}") String directory,
+                         @Value("${widget.journal.fsync:GROUP}") FsyncPolicy fsyncPolicy,
+                         @Value("${widget.journal.group-commit-ms:5}") long groupCommitMillis,
+                         @Value("${widget.journal.segment-size:67108864}") long segmentSize) {
+        this.directory = Path.of(directory);
+        this.fsyncPolicy = fsyncPolicy;
+        this.segmentSize = segmentSize;
+        try {
+            Files.createDirectories(this.directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (fsyncPolicy == FsyncPolicy.GROUP) {
+            groupCommit = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "widget-journal-commit");
+                thread.setDaemon(true);
+                return thread;
+            });
+            groupCommit.scheduleWithFixedDelay(this::commitGroup, groupCommitMillis, groupCommitMillis, TimeUnit.MILLISECONDS);
+        } else {
+            groupCommit = null;
+        }
+        log.info("Widget journal in {} with fsync policy {}", this.directory.toAbsolutePath(), fsyncPolicy);
+    }
+
+    /**
+     * Replay all records in the order they were appended and open the last segment for appending. A torn record at
+     * the end of the last segment is cut off.
+     *
+     * @param replay the receiver of records
+     * @return the number of replayed records
+     */
+    long replay(Replay replay) {
+        return replay(replay, null);
+    }
+
+    /**
+     * Replay the records after the given position in the order they were appended and open the last segment for
+     * appending. A torn record at the end of the last segment is cut off.
+     *
+     * @param replay the receiver of records
+     * @param from   the position to start from, or null to replay everything
+     * @return the number of replayed records
+     */
+    synchronized long replay(Replay replay, Position from) {
+        if (channel != null) {
+            throw new IllegalStateException("Widget journal is already replayed");
+        }
+        List<Path> segments = segments();
+        long records = 0L;
+        try {
+            for (int i = 0; i < segments.size(); i++) {
+                Path segment = segments.get(i);
+                boolean last = i == segments.size() - 1;
+                if (from != null && segmentIndex(segment) < from.getSegment()) {
+                    continue;
+                }
+                long start = from != null && segmentIndex(segment) == from.getSegment() ? from.getOffset() : HEADER_SIZE;
+                long[] validEnd = new long[1];
+                records += replaySegment(segment, start, replay, validEnd);
+                if (validEnd[0] < Files.size(segment)) {
+                    if (!last) {
+                        throw new IllegalStateException("Widget journal segment " + segment + " is corrupted at " + validEnd[0]);
+                    }
+                    log.warn("Cutting off a torn record at {} of widget journal segment {}", validEnd[0], segment);
+                    try (FileChannel torn = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                        torn.truncate(validEnd[0]);
+                    }
+                }
+            }
+            Path lastSegment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (lastSegment == null) {
+                openSegment(0L);
+            } else if (Files.size(lastSegment) < HEADER_SIZE) {
+                Files.delete(lastSegment);
+                openSegment(segmentIndex(lastSegment));
+            } else {
+                segmentIndex = segmentIndex(lastSegment);
+                channel = FileChannel.open(lastSegment, StandardOpenOption.WRITE);
+                segmentPosition = channel.size();
+                channel.position(segmentPosition);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.info("Replayed {} widget journal records from {} segments", records, segments.size());
+        return records;
+    }
+
+    /**
+     * Append the saved state of a widget.
+     *
+     * @param widget  the stored widget
+     * @param created whether the widget is new
+     */
+    synchronized void appendSave(Widget widget, boolean created) {
+        record.clear();
+        record.put(created ? CREATE : UPDATE)
+            .putLong(widget.getId())
+            .putLong(widget.getVersion())
+            .putInt(widget.getHeight())
+            .putInt(widget.getWidth())
+            .putInt(widget.getX())
+            .putInt(widget.getY())
+            .putInt(widget.getZ())
+            .putLong(widget.getModifiedDate());
+        append();
+    }
+
+    /**
+     * Append the deletion of a widget.
+     *
+     * @param id the id of widget
+     */
+    synchronized void appendDelete(Long id) {
+        record.clear();
+        record.put(DELETE).putLong(id);
+        append();
+    }
+
+    /**
+     * Append a shift of the widgets with fromZ &lt;= z &lt; toZ.
+     *
+     * @param fromZ        the lowest z, inclusive
+     * @param toZ          the highest z, exclusive
+     * @param modifiedDate the modified date of shifted widgets
+     */
+    synchronized void appendShift(int fromZ, int toZ, long modifiedDate) {
+        record.clear();
+        record.put(SHIFT).putInt(fromZ).putInt(toZ).putLong(modifiedDate);
+        append();
+    }
+
+    /**
+     * Append the deletion of all widgets.
+     */
+    synchronized void appendClear() {
+        record.clear();
+        record.put(CLEAR);
+        append();
+    }
+
+    /**
+     * The position after the last appended record.
+     *
+     * @return the position
+     */
+    synchronized Position position() {
+        return new Position(segmentIndex, segmentPosition);
+    }
+
+    /**
+     * Make every appended record durable, whatever the fsync policy. A snapshot refers to the position after them, so
+     * after a crash the journal must not end before it.
+     */
+    void forceAppended() {
+        force();
+    }
+
+    /**
+     * Delete the segments before the given one, their records are no longer needed to restore the board.
+     *
+     * @param segment the first segment to keep
+     */
+    void deleteSegmentsBefore(long segment) {
+        for (Path path : segments()) {
+            if (segmentIndex(path) >= segment) {
+                break;
+            }
+            try {
+                Files.delete(path);
+                log.debug("Deleted widget journal segment {}", path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * The sequence of the last appended record.
+     *
+     * @return the sequence
+     */
+    synchronized long lastSequence() {
+        return appendedSequence;
+    }
+
+    /**
+     * Defer the waits of the current thread for durability until the returned scope is closed, see
+     * {@link WidgetRepository#deferDurability()}.
+     *
+     * @return the scope, which waits for the last record appended in it when it is closed
+     */
+    WidgetRepository.DurabilityScope deferDurability() {
+        if (deferredSequence.get() != null) {
+            return WidgetRepository.DurabilityScope.NONE;
+        }
+        long[] deferred = new long[1];
+        deferredSequence.set(deferred);
+        return () -> {
+            deferredSequence.remove();
+            awaitDurableNow(deferred[0]);
+        };
+    }
+
+    /**
+     * Wait until the record with the given sequence is durable, as the fsync policy defines it. Inside a
+     * {@link #deferDurability() deferred scope} the wait is left to the end of the scope.
+     *
+     * @param sequence the sequence of record
+     */
+    void awaitDurable(long sequence) {
+        long[] deferred = deferredSequence.get();
+        if (deferred != null) {
+            deferred[0] = Math.max(deferred[0], sequence);
+            return;
+        }
+        awaitDurableNow(sequence);
+    }
+
+    private void awaitDurableNow(long sequence) {
+        if (sequence <= 0L) {
+            return;
+        }
+        switch (fsyncPolicy) {
+            case ALWAYS -> {
+                if (durableSequence() < sequence) {
+                    force();
+                }
+            }
+            case GROUP -> awaitGroupCommit(sequence);
+            case OS -> {
+                // the operating system decides
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (groupCommit != null) {
+            groupCommit.shutdown();
+        }
+        force();
+        synchronized (this) {
+            closeSegment();
+        }
+        log.info("Widget journal closed at sequence {}", appendedSequence);
+    }
+
+    private void append() {
+        if (channel == null) {
+            throw new IllegalStateException("Widget journal is not replayed");
+        }
+        record.flip();
+        int length = record.remaining();
+        crc.reset();
+        crc.update(record.array(), 0, length);
+        try {
+            if (segmentPosition > HEADER_SIZE && segmentPosition + RECORD_HEADER_SIZE + length > segmentSize) {
+                rollOver();
+            }
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE).putInt(length).putInt((int) crc.getValue()).flip();
+            writeFully(new ByteBuffer[]{header, record});
+            segmentPosition += RECORD_HEADER_SIZE + length;
+            appendedSequence++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeFully(ByteBuffer[] buffers) throws IOException {
+        while (buffers[buffers.length - 1].hasRemaining()) {
+            channel.write(buffers);
+        }
+    }
+
+    /**
+     * Force the current segment and move the durable sequence up to the records appended before. Concurrent callers
+     * wait for one fsync instead of doing their own.
+     */
+    private void force() {
+        synchronized (forceLock) {
+            FileChannel target;
+            long sequence;
+            synchronized (this) {
+                target = channel;
+                sequence = appendedSequence;
+            }
+            if (target == null || sequence <= durableSequence) {
+                return;
+            }
+            try {
+                target.force(false);
+            } catch (ClosedChannelException e) {
+                // the segment was forced when it was closed
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            durableSequence = sequence;
+            forceLock.notifyAll();
+        }
+    }
+
+    private void commitGroup() {
+        try {
+            force();
+        } catch (RuntimeException e) {
+            log.error("Group commit of widget journal failed", e);
+        }
+    }
+
+    private long durableSequence() {
+        synchronized (forceLock) {
+            return durableSequence;
+        }
+    }
+
+    private void awaitGroupCommit(long sequence) {
+        synchronized (forceLock) {
+            while (durableSequence < sequence) {
+                try {
+                    forceLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the widget journal", e);
+                }
+            }
+        }
+    }
+
+    private void rollOver() throws IOException {
+        closeSegment();
+        openSegment(segmentIndex + 1);
+        log.debug("Widget journal rolled over to segment {}", segmentIndex);
+    }
+
+    private void openSegment(long index) throws IOException {
+        segmentIndex = index;
+        channel = FileChannel.open(segmentPath(index), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        segmentPosition = HEADER_SIZE;
+    }
+
+    /**
+     * Close the current segment. It is forced with every policy, so a forced later segment means all records before
+     * it are durable.
+     */
+    private void closeSegment() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.force(false);
+            channel.close();
+            channel = null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long replaySegment(Path segment, long start, Replay replay, long[] validEnd) throws IOException {
+        long records = 0L;
+        try (FileChannel reader = FileChannel.open(segment, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = reader.map(FileChannel.MapMode.READ_ONLY, 0, reader.size());
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                validEnd[0] = 0L;
+                return 0L;
+            }
+            buffer.position((int) Math.min(Math.max(start, HEADER_SIZE), buffer.limit()));
+            validEnd[0] = buffer.position();
+            while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    break;
+                }
+                ByteBuffer payload = buffer.slice(buffer.position(), length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                apply(payload, replay);
+                buffer.position(buffer.position() + length);
+                validEnd[0] = buffer.position();
+                records++;
+            }
+        }
+        return records;
+    }
+
+    private static void apply(ByteBuffer payload, Replay replay) {
+        byte type = payload.get();
+        switch (type) {
+            case CREATE, UPDATE -> replay.save(Widget.builder()
+                .id(payload.getLong())
+                .version(payload.getLong())
+                .height(payload.getInt())
+                .width(payload.getInt())
+                .x(payload.getInt())
+                .y(payload.getInt())
+                .z(payload.getInt())
+                .modifiedDate(payload.getLong())
+                .build());
+            case DELETE -> replay.delete(payload.getLong());
+            case SHIFT -> replay.shift(payload.getInt(), payload.getInt(), payload.getLong());
+            case CLEAR -> replay.clear();
+            default -> throw new IllegalStateException("Unknown widget journal record type " + type);
+        }
+    }
+
+    private List<Path> segments() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path segmentPath(long index) {
+        return directory.resolve(String.format("%020d%s", index, SEGMENT_SUFFIX));
+    }
+
+    private static long segmentIndex(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
@@ -1,6 +1,8 @@
 package com.miro.sample.board.repository;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import com.miro.sample.board.model.Widget;
 import org.springframework.data.domain.Page;
@@ -25,10 +27,29 @@ public interface WidgetRepository extends CrudRepository<Widget, Long> {
     /**
      * Find max z integer.
      *
-     * @return the integer
+     * @return the highest z, null when the board is empty
      */
     Integer findMaxZ();
 
+    /**
+     * Find the first z index at or above the given one which is not occupied by any widget.
+     * Empty when every z index up to {@link Integer#MAX_VALUE} is occupied.
+     *
+     * @param z the z to start from
+     * @return the first free z
+     */
+    Optional<Integer> findFirstFreeZ(Integer z);
+
+    /**
+     * Move every widget with fromZ &lt;= z &lt; toZ one z index up in a single step. The version of every moved widget
+     * is increased, so clients holding an old copy of it fail the optimistic lock check on their next update.
+     *
+     * @param fromZ the lowest z to move, inclusive
+     * @param toZ   the highest z to move, exclusive; it must be free
+     * @return the number of moved widgets
+     */
+    int shiftZ(Integer fromZ, Integer toZ);
+
     /**
      * Find all by order by z asc iterable.
      *
@@ -36,6 +57,14 @@ public interface WidgetRepository extends CrudRepository<Widget, Long> {
      */
     Iterable<Widget> findAllByOrderByZAsc();
 
+    /**
+     * Stream all widgets ordered by z without loading the whole board at once. The stream must be closed, and with
+     * a database it has to be consumed inside a transaction, since it holds an open cursor.
+     *
+     * @return the widgets ordered by z
+     */
+    Stream<Widget> streamAllByOrderByZAsc();
+
 
     /**
      * Find all widget with pagination.
@@ -45,4 +74,75 @@ public interface WidgetRepository extends CrudRepository<Widget, Long> {
      */
     Page<Widget> findAll(Pageable pageable);
 
+    /**
+     * Find the widgets which come after the given position in (z, id) order. The cost does not depend on how deep
+     * the position is in the board.
+     *
+     * @param z     the z of the last seen widget
+     * @param id    the id of the last seen widget
+     * @param limit the maximum number of widgets
+     * @return the widgets ordered by z
+     */
+    List<Widget> findPageAfter(Integer z, Long id, int limit);
+
+    /**
+     * Find the widgets intersecting the area [x1, x2) x [y1, y2), where a widget occupies
+     * [x, x + width) x [y, y + height).
+     *
+     * @param x1 the left edge, inclusive
+     * @param y1 the top edge, inclusive
+     * @param x2 the right edge, exclusive
+     * @param y2 the bottom edge, exclusive
+     * @return the widgets ordered by z
+     */
+    List<Widget> findAllIntersecting(Integer x1, Integer y1, Integer x2, Integer y2);
+
+    /**
+     * Find the widget with the highest z containing the point.
+     *
+     * @param x the x of point
+     * @param y the y of point
+     * @return the topmost widget
+     */
+    Optional<Widget> findTopmostAt(Integer x, Integer y);
+
+    /**
+     * Whether the writes take part in Spring managed transactions. A repository which keeps the board in memory
+     * applies a write right away, running it in a transaction only costs time.
+     *
+     * @return true when the writes are committed or rolled back with the transaction
+     */
+    default boolean isTransactional() {
+        return false;
+    }
+
+    /**
+     * Let the writes of the current thread return as soon as they are applied, and wait until they are durable when
+     * the returned scope is closed. A writer which holds locks closes the scope after releasing them, so writers which
+     * commit at the same time share one fsync instead of waiting for the journal one after another. A scope opened
+     * inside another one does nothing, the outermost one waits.
+     *
+     * @return the scope, closing it waits for the writes made since it was opened
+     */
+    default DurabilityScope deferDurability() {
+        return DurabilityScope.NONE;
+    }
+
+    /**
+     * The end of the writes whose durability is waited for at once.
+     */
+    interface DurabilityScope extends AutoCloseable {
+        /**
+         * A scope which has nothing to wait for.
+         */
+        DurabilityScope NONE = () -> {
+        };
+
+        /**
+         * Wait until the writes made in the scope are durable.
+         */
+        @Override
+        void close();
+    }
+
 }
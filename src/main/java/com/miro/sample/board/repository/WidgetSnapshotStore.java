@@ -0,0 +1,257 @@
+package com.miro.sample.board.repository;
+
+import com.miro.sample.board.model.Widget;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Writes the in-memory board to a binary snapshot file and loads it back on start.
+ *
+ * <p>A snapshot is written from an immutable {@link BoardSnapshot}, so it is taken on a background thread without
+ * blocking writers. The file holds a versioned header, the widgets in z order and a CRC32 of everything before it. It
+ * is written next to the current one and moved over it only when complete, so a crash never leaves a half written
+ * snapshot behind. Journal segments older than a written snapshot are deleted.
+ */
+@Slf4j
+@Component
+@Profile("!h2 & !offheap & !tiered")
+@ConditionalOnProperty(name = "widget.snapshot.enabled", havingValue = "true")
+public class WidgetSnapshotStore implements DisposableBean {
+
+    private static final int MAGIC = 0x57534E50;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = Integer.BYTES * 3 + Long.BYTES * 4 + 1;
+    private static final int WIDGET_SIZE = Long.BYTES * 3 + Integer.BYTES * 5;
+    private static final String FILE_NAME = "board.snapshot";
+
+    private final Path file;
+    private final Path tempFile;
+    private final long intervalMillis;
+    private final Optional<WidgetJournal> journal;
+    private final ScheduledExecutorService writer;
+
+    private Supplier<BoardCheckpoint> checkpoints;
+    private long writtenRevision = -1L;
+
+    /**
+     * Instantiates a new Widget snapshot store.
+     *
+     * @param directory      the directory of snapshot file
+     * @param intervalMillis the interval between snapshots
+     * @param journal        the journal to compact after a snapshot is written
+     */
+    public WidgetSnapshotStore(@Value("${widget.snapshot.directory:snapshot}") String directory,
+                               @Value("${widget.snapshot.interval-ms:60000}") long intervalMillis,
+                               Optional<WidgetJournal> journal) {
+        Path path = Path.of(directory);
+        try {
+            Files.createDirectories(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.file = path.resolve(FILE_NAME);
+        this.tempFile = path.resolve(FILE_NAME + ".tmp");
+        this.intervalMillis = intervalMillis;
+        this.journal = journal;
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "widget-snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Load the last written snapshot.
+     *
+     * @return the checkpoint, or empty when no snapshot was written yet
+     */
+    Optional<BoardCheckpoint> load() {
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+        long started = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < HEADER_SIZE + Integer.BYTES) {
+                throw new IllegalStateException("Widget snapshot " + file + " is truncated");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(0, buffer.limit() - Integer.BYTES));
+            if ((int) crc.getValue() != buffer.getInt(buffer.limit() - Integer.BYTES)) {
+                throw new IllegalStateException("Widget snapshot " + file + " has a wrong checksum");
+            }
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                throw new IllegalStateException("Widget snapshot " + file + " has an unknown format");
+            }
+            long revision = buffer.getLong();
+            long lastId = buffer.getLong();
+            boolean journaled = buffer.get() != 0;
+            long segment = buffer.getLong();
+            long offset = buffer.getLong();
+            int count = buffer.getInt();
+            if (buffer.remaining() - Integer.BYTES != (long) count * WIDGET_SIZE) {
+                throw new IllegalStateException("Widget snapshot " + file + " does not hold " + count + " widgets");
+            }
+            List<Widget> widgets = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                widgets.add(Widget.builder()
+                    .id(buffer.getLong())
+                    .version(buffer.getLong())
+                    .height(buffer.getInt())
+                    .width(buffer.getInt())
+                    .x(buffer.getInt())
+                    .y(buffer.getInt())
+                    .z(buffer.getInt())
+                    .modifiedDate(buffer.getLong())
+                    .build());
+            }
+            BoardCheckpoint checkpoint = new BoardCheckpoint(BoardSnapshot.ofSorted(widgets, revision), lastId,
+                journaled ? new WidgetJournal.Position(segment, offset) : null);
+            writtenRevision = revision;
+            log.info("Loaded {} widgets from snapshot at revision {} in {} ms", count, revision,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            return Optional.of(checkpoint);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Write a snapshot of the board every interval, and a last one on shutdown.
+     *
+     * @param checkpoints takes the current state of board
+     */
+    void schedule(Supplier<BoardCheckpoint> checkpoints) {
+        this.checkpoints = checkpoints;
+        writer.scheduleWithFixedDelay(this::writeCurrent, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Write the checkpoint to the snapshot file, then delete the journal segments it makes obsolete. The journal is
+     * forced first, since replay starts at the position stored in the snapshot.
+     *
+     * @param checkpoint the checkpoint
+     */
+    synchronized void write(BoardCheckpoint checkpoint) {
+        BoardSnapshot board = checkpoint.getBoard();
+        if (board.getRevision() == writtenRevision) {
+            return;
+        }
+        long started = System.nanoTime();
+        if (checkpoint.getJournalPosition() != null) {
+            journal.ifPresent(WidgetJournal::forceAppended);
+        }
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream output = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), crc));
+            WidgetJournal.Position position = checkpoint.getJournalPosition();
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            output.writeLong(board.getRevision());
+            output.writeLong(checkpoint.getLastId());
+            output.writeBoolean(position != null);
+            output.writeLong(position == null ? 0L : position.getSegment());
+            output.writeLong(position == null ? 0L : position.getOffset());
+            output.writeInt(board.size());
+            for (Widget widget : board) {
+                output.writeLong(widget.getId());
+                output.writeLong(widget.getVersion());
+                output.writeInt(widget.getHeight());
+                output.writeInt(widget.getWidth());
+                output.writeInt(widget.getX());
+                output.writeInt(widget.getY());
+                output.writeInt(widget.getZ());
+                output.writeLong(widget.getModifiedDate());
+            }
+            output.flush();
+            ByteBuffer checksum = ByteBuffer.allocate(Integer.BYTES).putInt((int) crc.getValue()).flip();
+            while (checksum.hasRemaining()) {
+                channel.write(checksum);
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        boolean moveDurable = forceDirectory();
+        writtenRevision = board.getRevision();
+        log.info("Wrote snapshot of {} widgets at revision {} in {} ms", board.size(), board.getRevision(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+
+        WidgetJournal.Position position = checkpoint.getJournalPosition();
+        if (position != null && moveDurable) {
+            journal.ifPresent(target -> target.deleteSegmentsBefore(position.getSegment()));
+        }
+    }
+
+    @Override
+    public void destroy() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Widget snapshot writer did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeCurrent();
+    }
+
+    /**
+     * Force the directory, so the rename of the snapshot survives a crash.
+     *
+     * @return false when the platform can not force a directory, the journal segments are kept then
+     */
+    private boolean forceDirectory() {
+        try (FileChannel directory = FileChannel.open(file.getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+            return true;
+        } catch (IOException e) {
+            log.warn("Could not force the snapshot directory, keeping the journal segments", e);
+            return false;
+        }
+    }
+
+    private void writeCurrent() {
+        if (checkpoints == null) {
+            return;
+        }
+        try {
+            write(checkpoints.get());
+        } catch (RuntimeException e) {
+            log.error("Writing widget snapshot failed", e);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.miro.sample.board.repository;
+
+import com.miro.sample.board.model.Widget;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Writes the changed widgets of the memory tier to the database in the background.
+ *
+ * <p>Only the ids of changed widgets are queued. A flush reads the current state of every queued id from the memory
+ * tier and writes it with one batched upsert, or deletes the row when the widget is gone, so any number of changes of
+ * a widget between two flushes becomes one write. The queue is bounded: when it is full, writers wait for the next
+ * flush. Closing drains the queue.
+ */
+@Slf4j
+final class WidgetWriteBehind {
+
+    private static final String UPSERT = "MERGE INTO WIDGET (ID, VERSION, HEIGHT, WIDTH, X, Y, Z, MODIFIED_DATE) "
+        + "KEY (ID) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String DELETE = "DELETE FROM WIDGET WHERE ID = ?";
+    private static final String CLEAR = "DELETE FROM WIDGET";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Function<Long, Optional<Widget>> currentState;
+    private final int batchSize;
+    private final int capacity;
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final Object flushLock = new Object();
+
+    private Set<Long> dirty = new LinkedHashSet<>();
+    private boolean cleared;
+
+    /**
+     * Instantiates a new write-behind and starts flushing at the interval.
+     *
+     * @param jdbcTemplate        the database access
+     * @param transactionTemplate runs a flush in one transaction
+     * @param currentState        finds the current state of a widget in the memory tier
+     * @param flushIntervalMillis the interval of flushes
+     * @param batchSize           the number of queued changes which triggers a flush, and the JDBC batch size
+     * @param capacity            the number of queued changes after which writers wait
+     */
+    WidgetWriteBehind(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                      Function<Long, Optional<Widget>> currentState, long flushIntervalMillis, int batchSize,
+                      int capacity) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.currentState = currentState;
+        this.batchSize = batchSize;
+        this.capacity = Math.max(capacity, batchSize);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "widget-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue the widget to be written. Waits while the queue is full.
+     *
+     * @param id the id of changed or deleted widget
+     */
+    synchronized void changed(long id) {
+        while (dirty.size() >= capacity && !dirty.contains(id)) {
+            requestFlush();
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        dirty.add(id);
+        if (dirty.size() >= batchSize) {
+            requestFlush();
+        }
+    }
+
+    /**
+     * Queue the removal of all widgets. The changes queued before are dropped, the ones queued after are written
+     * after the removal.
+     */
+    synchronized void cleared() {
+        dirty = new LinkedHashSet<>();
+        cleared = true;
+        notifyAll();
+    }
+
+    /**
+     * Write the queued changes now.
+     */
+    void flush() {
+        synchronized (flushLock) {
+            Set<Long> ids;
+            boolean clear;
+            synchronized (this) {
+                ids = dirty;
+                clear = cleared;
+                dirty = new LinkedHashSet<>();
+                cleared = false;
+                notifyAll();
+            }
+            if (ids.isEmpty() && !clear) {
+                return;
+            }
+            List<Widget> upserts = new ArrayList<>();
+            List<Long> deletes = new ArrayList<>();
+            for (Long id : ids) {
+                currentState.apply(id).ifPresentOrElse(upserts::add, () -> deletes.add(id));
+            }
+            try {
+                transactionTemplate.executeWithoutResult(status -> write(clear, upserts, deletes));
+                log.debug("Flushed {} widgets and {} deletes", upserts.size(), deletes.size());
+            } catch (RuntimeException e) {
+                log.error("Failed to flush {} widgets, they are queued again", ids.size(), e);
+                requeue(ids, clear);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Stop flushing at the interval and write all queued changes.
+     */
+    void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private void write(boolean clear, List<Widget> upserts, List<Long> deletes) {
+        if (clear) {
+            jdbcTemplate.update(CLEAR);
+        }
+        jdbcTemplate.batchUpdate(DELETE, deletes, batchSize, (statement, id) -> statement.setLong(1, id));
+        jdbcTemplate.batchUpdate(UPSERT, upserts, batchSize, (statement, widget) -> {
+            statement.setLong(1, widget.getId());
+            statement.setLong(2, widget.getVersion());
+            statement.setInt(3, widget.getHeight());
+            statement.setInt(4, widget.getWidth());
+            statement.setInt(5, widget.getX());
+            statement.setInt(6, widget.getY());
+            statement.setInt(7, widget.getZ());
+            statement.setLong(8, widget.getModifiedDate());
+        });
+    }
+
+    /**
+     * Put the ids of a failed flush back in front of the changes queued in the meantime.
+     */
+    private synchronized void requeue(Set<Long> ids, boolean clear) {
+        if (cleared) {
+            return;
+        }
+        ids.addAll(dirty);
+        dirty = new LinkedHashSet<>(ids);
+        cleared = clear;
+    }
+
+    private void requestFlush() {
+        if (flushRequested.compareAndSet(false, true)) {
+            try {
+                flusher.execute(() -> {
+                    flushRequested.set(false);
+                    flushQuietly();
+                });
+            } catch (RejectedExecutionException e) {
+                // closing, the queue is drained by close
+                flushRequested.set(false);
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // logged by flush, retried with the next one
+        }
+    }
+}
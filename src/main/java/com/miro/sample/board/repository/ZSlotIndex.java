@@ -0,0 +1,292 @@
+package com.miro.sample.board.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.OptionalInt;
+
+/**
+ * Sorted map from z to an int slot, kept in primitive arrays. The entries are split into blocks of bounded size which
+ * are ordered by their first z, so a lookup is two binary searches and a change moves at most one block. A shift of
+ * a run of z values is done in place, since adding one to each z of the run keeps the order. It is not thread safe.
+ */
+final class ZSlotIndex {
+
+    static final int NO_SLOT = -1;
+
+    private static final int BLOCK_CAPACITY = 1024;
+
+    /**
+     * Visits the entries of the index in z order.
+     */
+    interface Visitor {
+        /**
+         * Visit an entry.
+         *
+         * @param z    the z
+         * @param slot the slot
+         * @return false to stop
+         */
+        boolean visit(int z, int slot);
+    }
+
+    private final List<Block> blocks = new ArrayList<>();
+    private int size;
+
+    /**
+     * Number of entries.
+     *
+     * @return the size
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Find the slot at z.
+     *
+     * @param z the z
+     * @return the slot, or {@link #NO_SLOT}
+     */
+    int get(int z) {
+        int blockIndex = blockFor(z);
+        if (blockIndex < 0) {
+            return NO_SLOT;
+        }
+        Block block = blocks.get(blockIndex);
+        int index = Arrays.binarySearch(block.keys, 0, block.size, z);
+        return index >= 0 ? block.slots[index] : NO_SLOT;
+    }
+
+    /**
+     * The highest z.
+     *
+     * @return the highest z, or empty when the index is empty
+     */
+    OptionalInt maxZ() {
+        return blocks.isEmpty() ? OptionalInt.empty() : OptionalInt.of(blocks.get(blocks.size() - 1).last());
+    }
+
+    /**
+     * Put the slot at z.
+     *
+     * @param z    the z
+     * @param slot the slot
+     * @return the slot which was at z, or {@link #NO_SLOT}
+     */
+    int put(int z, int slot) {
+        if (blocks.isEmpty()) {
+            blocks.add(new Block());
+        }
+        int blockIndex = Math.max(blockFor(z), 0);
+        Block block = blocks.get(blockIndex);
+        int index = Arrays.binarySearch(block.keys, 0, block.size, z);
+        if (index >= 0) {
+            int previous = block.slots[index];
+            block.slots[index] = slot;
+            return previous;
+        }
+        index = -index - 1;
+        if (block.size == BLOCK_CAPACITY) {
+            Block upper = block.split();
+            blocks.add(blockIndex + 1, upper);
+            if (index > block.size) {
+                index -= block.size;
+                block = upper;
+            }
+        }
+        block.insert(index, z, slot);
+        size++;
+        return NO_SLOT;
+    }
+
+    /**
+     * Remove the entry at z.
+     *
+     * @param z the z
+     * @return the removed slot, or {@link #NO_SLOT}
+     */
+    int remove(int z) {
+        int blockIndex = blockFor(z);
+        if (blockIndex < 0) {
+            return NO_SLOT;
+        }
+        Block block = blocks.get(blockIndex);
+        int index = Arrays.binarySearch(block.keys, 0, block.size, z);
+        if (index < 0) {
+            return NO_SLOT;
+        }
+        int removed = block.slots[index];
+        block.delete(index);
+        if (block.size == 0) {
+            blocks.remove(blockIndex);
+        }
+        size--;
+        return removed;
+    }
+
+    /**
+     * Remove all entries.
+     */
+    void clear() {
+        blocks.clear();
+        size = 0;
+    }
+
+    /**
+     * Find the first z at or above the given one which is not taken. Blocks without any gap are skipped as a whole.
+     *
+     * @param z the z to start from
+     * @return the first free z, or empty when all of them up to {@link Integer#MAX_VALUE} are taken
+     */
+    OptionalInt firstFreeZ(int z) {
+        long candidate = z;
+        for (int blockIndex = Math.max(blockFor(z), 0); blockIndex < blocks.size(); blockIndex++) {
+            Block block = blocks.get(blockIndex);
+            if (candidate < block.first()) {
+                break;
+            }
+            if ((long) block.last() - block.first() + 1 == block.size) {
+                candidate = Math.max(candidate, block.last() + 1L);
+                continue;
+            }
+            int index = lowerBound(block, candidate);
+            while (index < block.size && block.keys[index] == candidate) {
+                candidate++;
+                index++;
+            }
+            if (index < block.size) {
+                break;
+            }
+        }
+        return candidate > Integer.MAX_VALUE ? OptionalInt.empty() : OptionalInt.of((int) candidate);
+    }
+
+    /**
+     * Add one to every z with fromZ &lt;= z &lt; toZ. The caller makes sure toZ is free.
+     *
+     * @param fromZ   the lowest z, inclusive
+     * @param toZ     the highest z, exclusive
+     * @param visitor gets the new z and the slot of every shifted entry
+     * @return the number of shifted entries
+     */
+    int shift(int fromZ, int toZ, Visitor visitor) {
+        int shifted = 0;
+        for (int blockIndex = Math.max(blockFor(fromZ), 0); blockIndex < blocks.size(); blockIndex++) {
+            Block block = blocks.get(blockIndex);
+            for (int index = lowerBound(block, fromZ); index < block.size; index++) {
+                if (block.keys[index] >= toZ) {
+                    return shifted;
+                }
+                block.keys[index]++;
+                visitor.visit(block.keys[index], block.slots[index]);
+                shifted++;
+            }
+        }
+        return shifted;
+    }
+
+    /**
+     * Visit the entries with a z at or above the given one in z order.
+     *
+     * @param fromZ   the lowest z, inclusive
+     * @param visitor the visitor
+     */
+    void forEachFrom(int fromZ, Visitor visitor) {
+        for (int blockIndex = Math.max(blockFor(fromZ), 0); blockIndex < blocks.size(); blockIndex++) {
+            Block block = blocks.get(blockIndex);
+            for (int index = lowerBound(block, fromZ); index < block.size; index++) {
+                if (!visitor.visit(block.keys[index], block.slots[index])) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Visit the entries from the given position in z order.
+     *
+     * @param offset  the position of first entry, starting from 0
+     * @param visitor the visitor
+     */
+    void forEachFromRank(long offset, Visitor visitor) {
+        long skipped = 0L;
+        for (Block block : blocks) {
+            if (skipped + block.size <= offset) {
+                skipped += block.size;
+                continue;
+            }
+            for (int index = (int) Math.max(offset - skipped, 0); index < block.size; index++) {
+                if (!visitor.visit(block.keys[index], block.slots[index])) {
+                    return;
+                }
+            }
+            skipped += block.size;
+        }
+    }
+
+    /**
+     * Find the last block whose first z is not above the given one.
+     */
+    private int blockFor(long z) {
+        int low = 0;
+        int high = blocks.size() - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (blocks.get(middle).first() <= z) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    private static int lowerBound(Block block, long z) {
+        if (z > Integer.MAX_VALUE) {
+            return block.size;
+        }
+        int index = Arrays.binarySearch(block.keys, 0, block.size, (int) Math.max(z, Integer.MIN_VALUE));
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private static final class Block {
+        private final int[] keys = new int[BLOCK_CAPACITY];
+        private final int[] slots = new int[BLOCK_CAPACITY];
+        private int size;
+
+        private int first() {
+            return keys[0];
+        }
+
+        private int last() {
+            return keys[size - 1];
+        }
+
+        private void insert(int index, int z, int slot) {
+            System.arraycopy(keys, index, keys, index + 1, size - index);
+            System.arraycopy(slots, index, slots, index + 1, size - index);
+            keys[index] = z;
+            slots[index] = slot;
+            size++;
+        }
+
+        private void delete(int index) {
+            System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+            System.arraycopy(slots, index + 1, slots, index, size - index - 1);
+            size--;
+        }
+
+        private Block split() {
+            Block upper = new Block();
+            int half = size >>> 1;
+            upper.size = size - half;
+            System.arraycopy(keys, half, upper.keys, 0, upper.size);
+            System.arraycopy(slots, half, upper.slots, 0, upper.size);
+            size = half;
+            return upper;
+        }
+    }
+}
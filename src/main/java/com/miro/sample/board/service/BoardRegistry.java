@@ -0,0 +1,190 @@
+package com.miro.sample.board.service;
+
+import com.miro.sample.board.exceptions.BoardNotDurableException;
+import com.miro.sample.board.repository.MemoryWidgetRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * The boards besides the default one. Every board is a {@link WidgetService} of its own over its own
+ * {@link MemoryWidgetRepository}, so it has its own z index, locks and id sequence, and writes to different boards
+ * never contend.
+ *
+ * <p>A board is created by the first write to it, and an empty board is a few small tables. Reading a board which has
+ * never been written to does not create it, so unknown boards cost nothing. Subscribing to it does not create it
+ * either: the subscribers wait on a feed of their own, which the board takes over on the first write. The boards are
+ * kept in memory only, they are not journaled: while the journal of the default board is enabled a write to a board
+ * is rejected, instead of being acknowledged and lost on the next restart.
+ *
+ * <p>A board which holds no widgets, has not been used for the idle timeout and has no subscribers is dropped, so
+ * boards which were emptied give their memory back. A board with widgets is never dropped.
+ */
+@Slf4j
+@Service
+@Profile("!h2 & !offheap & !tiered")
+public class BoardRegistry implements DisposableBean {
+
+    private final ConcurrentMap<String, Board> boards = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, WidgetChangeFeed> pendingFeeds = new ConcurrentHashMap<>();
+    private final AutowireCapableBeanFactory beanFactory;
+    private final WidgetService emptyBoard;
+    private final boolean journaled;
+    private final long idleTimeoutNanos;
+    private final ScheduledExecutorService evictor;
+
+    /**
+     * Instantiates a new board registry.
+     *
+     * @param beanFactory       applies the validation of services to the board services
+     * @param journaled         whether the journal is enabled, boards can not be written then
+     * @param idleTimeoutMillis the time after which an empty board nobody uses is dropped, 0 keeps the boards
+     */
+    public BoardRegistry(AutowireCapableBeanFactory beanFactory,
+                         @Value("${widget.journal.enabled:false}") boolean journaled,
+                         @Value("${widget.boards.idle-timeout-ms:3600000}") long idleTimeoutMillis) {
+        this.beanFactory = beanFactory;
+        this.emptyBoard = newBoard("").service;
+        this.journaled = journaled;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "board-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (idleTimeoutMillis > 0) {
+            long period = Math.max(1L, idleTimeoutMillis / 2);
+            evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Find the board to write to, it is created when it does not exist.
+     *
+     * @param boardId the board id
+     * @return the service of board
+     * @throws BoardNotDurableException when the journal is enabled
+     */
+    public WidgetService board(String boardId) {
+        if (journaled) {
+            throw new BoardNotDurableException();
+        }
+        // the access is stamped inside the map, so an eviction never drops a board a writer has just got
+        return boards.compute(boardId, (id, board) -> (board == null ? newBoard(id) : board).touch()).service;
+    }
+
+    /**
+     * Find the board to read from. A board which does not exist reads as an empty one.
+     *
+     * @param boardId the board id
+     * @return the service of board, only for reading when the board does not exist
+     */
+    public WidgetService boardToRead(String boardId) {
+        Board board = boards.get(boardId);
+        return board == null ? emptyBoard : board.touch().service;
+    }
+
+    /**
+     * Subscribe to the changes of a board. A board which does not exist is not created, the subscriber gets the
+     * changes from its first write on.
+     *
+     * @param boardId    the board id
+     * @param subscriber subscribes to the feed of board, it is called while the board can not be created or dropped
+     * @return the subscription
+     */
+    public WidgetChangeFeed.Subscription subscribe(String boardId,
+                                                   Function<WidgetChangeFeed, WidgetChangeFeed.Subscription> subscriber) {
+        WidgetChangeFeed.Subscription[] subscription = new WidgetChangeFeed.Subscription[1];
+        // the pending feed is looked up under the lock of the board entry, so a first write can not miss it
+        boards.compute(boardId, (id, board) -> {
+            WidgetChangeFeed feed = board == null
+                ? pendingFeeds.computeIfAbsent(id, pending -> new WidgetChangeFeed())
+                : board.touch().service.getChangeFeed();
+            subscription[0] = subscriber.apply(feed);
+            return board;
+        });
+        return subscription[0];
+    }
+
+    /**
+     * Number of boards.
+     *
+     * @return the number of boards which have been written to
+     */
+    public int size() {
+        return boards.size();
+    }
+
+    /**
+     * Drop the empty boards which have not been used for the idle timeout and have no subscribers, and the pending
+     * feeds nobody waits on any more.
+     */
+    private void evictIdle() {
+        long idleSince = System.nanoTime() - idleTimeoutNanos;
+        for (String boardId : boards.keySet()) {
+            boards.computeIfPresent(boardId, (id, board) -> {
+                if (!board.isIdle(idleSince)) {
+                    return board;
+                }
+                log.debug("Dropping board {}, it is empty and idle", id);
+                return null;
+            });
+        }
+        for (String boardId : pendingFeeds.keySet()) {
+            boards.compute(boardId, (id, board) -> {
+                pendingFeeds.computeIfPresent(id, (pending, feed) -> feed.subscribers() == 0 ? null : feed);
+                return board;
+            });
+        }
+    }
+
+    @Override
+    public void destroy() {
+        evictor.shutdownNow();
+    }
+
+    private Board newBoard(String boardId) {
+        log.debug("Creating board {}", boardId);
+        WidgetService board = new WidgetService();
+        MemoryWidgetRepository repository = new MemoryWidgetRepository();
+        board.setRepository(repository);
+        WidgetChangeFeed pendingFeed = pendingFeeds.remove(boardId);
+        if (pendingFeed != null) {
+            board.setChangeFeed(pendingFeed);
+        }
+        return new Board((WidgetService) beanFactory.initializeBean(board, "board:" + boardId), repository);
+    }
+
+    /**
+     * A board and the time it was last used.
+     */
+    private static final class Board {
+        private final WidgetService service;
+        private final MemoryWidgetRepository repository;
+        private volatile long lastAccess = System.nanoTime();
+
+        private Board(WidgetService service, MemoryWidgetRepository repository) {
+            this.service = service;
+            this.repository = repository;
+        }
+
+        private Board touch() {
+            lastAccess = System.nanoTime();
+            return this;
+        }
+
+        private boolean isIdle(long idleSince) {
+            return lastAccess - idleSince < 0 && service.getChangeFeed().subscribers() == 0 && repository.count() == 0;
+        }
+    }
+}
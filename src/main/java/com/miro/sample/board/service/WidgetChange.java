@@ -0,0 +1,40 @@
+package com.miro.sample.board.service;
+
+import com.miro.sample.board.model.Widget;
+import lombok.Value;
+
+/**
+ * One committed change of a board, as published by {@link WidgetChangeFeed}.
+ */
+@Value
+public class WidgetChange {
+
+    /**
+     * The kind of change.
+     */
+    public enum Type {
+        CREATED, UPDATED, DELETED, SHIFTED
+    }
+
+    /**
+     * The revision of board after the change. Every change of a board increments it by one.
+     */
+    long revision;
+    Type type;
+    /**
+     * The widget id, null for a shift.
+     */
+    Long id;
+    /**
+     * The stored widget for a create or an update.
+     */
+    Widget widget;
+    /**
+     * The lowest z moved up by a shift, inclusive.
+     */
+    Integer fromZ;
+    /**
+     * The highest z moved up by a shift, exclusive.
+     */
+    Integer toZ;
+}
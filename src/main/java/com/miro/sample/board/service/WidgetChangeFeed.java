@@ -0,0 +1,404 @@
+package com.miro.sample.board.service;
+
+import com.miro.sample.board.model.Widget;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+/**
+ * Pushes the committed changes of one board to its subscribers and keeps the recent ones for clients which catch up.
+ *
+ * <p>{@link WidgetService} reports every write here. A change is published when its transaction commits, or right
+ * away without one, and gets the next board revision, so subscribers see the changes in commit order with revisions
+ * which increase by one. Every subscriber has a bounded buffer, drained on a fixed pool of delivery threads in turns of
+ * at most {@value #DRAIN_BATCH} changes, so a slow subscriber never holds up the writers and the subscribers share the
+ * threads: when its buffer overflows it is evicted and has to subscribe again. A listener which blocks longer than the
+ * delivery timeout, a client which stopped reading, is evicted as well and its delivery thread is interrupted. A write
+ * may not give up when it is interrupted, so the pool gets a thread in place of every stalled one until it returns, and
+ * stalled clients never hold up the delivery to the others. The evicted subscribers are told on threads of their own,
+ * as telling them may block on the very write which stalled.
+ *
+ * <p>The last changes are kept in a ring, deletes as tombstones, so a client which saw a revision gets the changes
+ * after it instead of the whole board. The revision starts at 0 with the service, so a revision only means something
+ * together with the {@link #epoch()} of the feed: after a restart the epoch of a client is unknown and it has to load
+ * the board again.
+ */
+@Slf4j
+public class WidgetChangeFeed {
+
+    /**
+     * The number of changes buffered for a subscriber before it is evicted.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    /**
+     * The number of changes kept for clients which catch up.
+     */
+    public static final int DEFAULT_LOG_SIZE = 10_000;
+
+    /**
+     * The time a listener may take to accept one change before its subscriber is evicted.
+     */
+    public static final long DEFAULT_DELIVERY_TIMEOUT_MILLIS = 10_000L;
+
+    private static final int DELIVERY_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final int DRAIN_BATCH = 64;
+    private static final ThreadPoolExecutor DELIVERY = new ThreadPoolExecutor(DELIVERY_THREADS, DELIVERY_THREADS,
+        1L, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "widget-change-feed");
+            thread.setDaemon(true);
+            return thread;
+        });
+    private static final ExecutorService EVICTION = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "widget-change-feed-eviction");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final long WATCHDOG_PERIOD_MILLIS = 100L;
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "widget-change-feed-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * The subscriptions of all feeds which are being drained, the watchdog only looks at these.
+     */
+    private static final Set<Subscription> DRAINING = ConcurrentHashMap.newKeySet();
+    private static int stalledThreads;
+
+    static {
+        WATCHDOG.scheduleWithFixedDelay(WidgetChangeFeed::evictStalled, WATCHDOG_PERIOD_MILLIS, WATCHDOG_PERIOD_MILLIS,
+            TimeUnit.MILLISECONDS);
+    }
+
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final int bufferSize;
+    private final long deliveryTimeoutNanos;
+    private final WidgetChange[] changeLog;
+    private final long epoch = ThreadLocalRandom.current().nextLong();
+    private long revision;
+
+    /**
+     * Instantiates a new change feed with the default sizes.
+     */
+    public WidgetChangeFeed() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_LOG_SIZE);
+    }
+
+    /**
+     * Instantiates a new change feed with the default delivery timeout.
+     *
+     * @param bufferSize the number of changes buffered for a subscriber before it is evicted
+     * @param logSize    the number of changes kept for clients which catch up
+     */
+    public WidgetChangeFeed(int bufferSize, int logSize) {
+        this(bufferSize, logSize, DEFAULT_DELIVERY_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Instantiates a new change feed.
+     *
+     * @param bufferSize            the number of changes buffered for a subscriber before it is evicted
+     * @param logSize               the number of changes kept for clients which catch up
+     * @param deliveryTimeoutMillis the time a listener may take to accept one change before it is evicted
+     */
+    public WidgetChangeFeed(int bufferSize, int logSize, long deliveryTimeoutMillis) {
+        this.bufferSize = bufferSize;
+        this.changeLog = new WidgetChange[logSize];
+        this.deliveryTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(deliveryTimeoutMillis);
+    }
+
+    /**
+     * The revision of the last published change.
+     *
+     * @return the revision, 0 before the first change
+     */
+    public synchronized long revision() {
+        return revision;
+    }
+
+    /**
+     * A random id of this feed. The revisions of two feeds, for example before and after a restart, are not
+     * comparable, the epoch tells them apart.
+     *
+     * @return the epoch
+     */
+    public long epoch() {
+        return epoch;
+    }
+
+    /**
+     * Find the changes after a revision.
+     *
+     * @param epoch the epoch of the feed the client has seen the revision of
+     * @param since the last revision the client has seen, 0 or more
+     * @return the changes with a higher revision in order, empty when the epoch is another one, the log does not
+     * reach back to the revision or the revision is not known
+     * @throws IllegalArgumentException when the revision is negative, no feed ever had it
+     */
+    public synchronized Optional<List<WidgetChange>> changesSince(long epoch, long since) {
+        if (since < 0) {
+            throw new IllegalArgumentException("The revision " + since + " is negative");
+        }
+        if (epoch != this.epoch || since > revision || revision - since > changeLog.length) {
+            return Optional.empty();
+        }
+        List<WidgetChange> changes = new ArrayList<>((int) (revision - since));
+        for (long next = since + 1; next <= revision; next++) {
+            changes.add(changeLog[slot(next)]);
+        }
+        return Optional.of(changes);
+    }
+
+    /**
+     * Number of subscribers.
+     *
+     * @return the number of subscriptions which are not closed
+     */
+    public int subscribers() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Subscribe to the changes published from now on.
+     *
+     * @param listener  gets the changes one after another on a delivery thread, the subscription is closed when it
+     *                  throws
+     * @param onEvicted called when the subscription is evicted because the listener is too slow, on a thread of its own
+     * @return the subscription
+     */
+    public Subscription subscribe(Consumer<WidgetChange> listener, Runnable onEvicted) {
+        Subscription subscription = new Subscription(listener, onEvicted);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    void created(Widget widget) {
+        publish(next -> change(next, WidgetChange.Type.CREATED, widget));
+    }
+
+    void updated(Widget widget) {
+        publish(next -> change(next, WidgetChange.Type.UPDATED, widget));
+    }
+
+    void deleted(Long id) {
+        publish(next -> new WidgetChange(next, WidgetChange.Type.DELETED, id, null, null, null));
+    }
+
+    void shifted(Integer fromZ, Integer toZ) {
+        publish(next -> new WidgetChange(next, WidgetChange.Type.SHIFTED, null, null, fromZ, toZ));
+    }
+
+    /**
+     * Copy the widget when it is published, a database assigns its version on commit.
+     */
+    private static WidgetChange change(long revision, WidgetChange.Type type, Widget widget) {
+        return new WidgetChange(revision, type, widget.getId(), new Widget(widget), null, null);
+    }
+
+    private void publish(LongFunction<WidgetChange> change) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            dispatch(change);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                dispatch(change);
+            }
+        });
+    }
+
+    private synchronized void dispatch(LongFunction<WidgetChange> change) {
+        WidgetChange published = change.apply(++revision);
+        if (changeLog.length > 0) {
+            changeLog[slot(revision)] = published;
+        }
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(published);
+        }
+    }
+
+    private int slot(long of) {
+        return (int) (of % changeLog.length);
+    }
+
+    /**
+     * Grow the delivery pool by a thread when a listener stalls and shrink it when the listener returns, so the threads
+     * which are not stalled stay the same.
+     */
+    private static synchronized void stalledThreads(int delta) {
+        stalledThreads += delta;
+        int size = DELIVERY_THREADS + stalledThreads;
+        if (delta > 0) {
+            DELIVERY.setMaximumPoolSize(size);
+            DELIVERY.setCorePoolSize(size);
+        } else {
+            DELIVERY.setCorePoolSize(size);
+            DELIVERY.setMaximumPoolSize(size);
+        }
+    }
+
+    private static void evictStalled() {
+        long now = System.nanoTime();
+        for (Subscription subscription : DRAINING) {
+            try {
+                subscription.evictIfStalled(now);
+            } catch (RuntimeException e) {
+                log.warn("Could not evict a stalled subscriber", e);
+            }
+        }
+    }
+
+    /**
+     * A subscription of {@link WidgetChangeFeed}.
+     */
+    public final class Subscription implements AutoCloseable {
+        private final BlockingQueue<WidgetChange> buffer = new ArrayBlockingQueue<>(bufferSize);
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final Consumer<WidgetChange> listener;
+        private final Runnable onEvicted;
+        private final AtomicBoolean evicted = new AtomicBoolean();
+        private volatile boolean closed;
+        /**
+         * The thread in the listener, the time it was called and whether it was taken as stalled, guarded by the
+         * subscription.
+         */
+        private Thread delivering;
+        private long deliveringSince;
+        private boolean stalled;
+
+        private Subscription(Consumer<WidgetChange> listener, Runnable onEvicted) {
+            this.listener = listener;
+            this.onEvicted = onEvicted;
+        }
+
+        /**
+         * Stop the delivery and drop the buffered changes.
+         */
+        @Override
+        public void close() {
+            closed = true;
+            subscriptions.remove(this);
+            buffer.clear();
+        }
+
+        /**
+         * Whether the subscription is closed or evicted.
+         *
+         * @return true when no more changes are delivered
+         */
+        public boolean isClosed() {
+            return closed;
+        }
+
+        private void offer(WidgetChange change) {
+            if (closed) {
+                return;
+            }
+            if (!buffer.offer(change)) {
+                log.debug("Evicting a subscriber {} changes behind", bufferSize);
+                evict();
+                return;
+            }
+            if (draining.compareAndSet(false, true)) {
+                DELIVERY.execute(this::drain);
+            }
+        }
+
+        /**
+         * Deliver a batch of the buffered changes, and queue the next drain behind the other subscribers when more are
+         * left. Only one drain of a subscription runs or is queued at a time, which keeps the changes in order.
+         */
+        private void drain() {
+            DRAINING.add(this);
+            try {
+                for (int delivered = 0; delivered < DRAIN_BATCH && !closed; delivered++) {
+                    WidgetChange change = buffer.poll();
+                    if (change == null) {
+                        break;
+                    }
+                    deliver(change);
+                }
+            } finally {
+                DRAINING.remove(this);
+            }
+            if (closed || buffer.isEmpty()) {
+                draining.set(false);
+                // a change offered in between saw the flag still set and left it to this drain
+                if (closed || buffer.isEmpty() || !draining.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+            DELIVERY.execute(this::drain);
+        }
+
+        private void deliver(WidgetChange change) {
+            synchronized (this) {
+                delivering = Thread.currentThread();
+                deliveringSince = System.nanoTime();
+            }
+            try {
+                listener.accept(change);
+            } catch (RuntimeException e) {
+                log.debug("Closing a subscription, its listener failed", e);
+                close();
+            } finally {
+                boolean replaced;
+                synchronized (this) {
+                    delivering = null;
+                    replaced = stalled;
+                    stalled = false;
+                    // an interrupt of the watchdog is meant for this listener only, not for the next task of the thread
+                    Thread.interrupted();
+                }
+                if (replaced) {
+                    stalledThreads(-1);
+                }
+            }
+        }
+
+        /**
+         * Evict the subscription when its listener has been blocked for longer than the delivery timeout, and interrupt
+         * the blocked write.
+         */
+        private void evictIfStalled(long now) {
+            synchronized (this) {
+                if (delivering == null || stalled || now - deliveringSince < deliveryTimeoutNanos) {
+                    return;
+                }
+                stalled = true;
+                delivering.interrupt();
+                stalledThreads(1);
+            }
+            log.debug("Evicting a subscriber blocked for {} ms", TimeUnit.NANOSECONDS.toMillis(deliveryTimeoutNanos));
+            evict();
+        }
+
+        private void evict() {
+            if (closed || !evicted.compareAndSet(false, true)) {
+                return;
+            }
+            close();
+            EVICTION.execute(onEvicted);
+        }
+    }
+}
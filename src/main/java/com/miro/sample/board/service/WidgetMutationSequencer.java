@@ -0,0 +1,175 @@
+package com.miro.sample.board.service;
+
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.EventTranslatorTwoArg;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import com.lmax.disruptor.util.DaemonThreadFactory;
+import com.miro.sample.board.repository.WidgetRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Single writer for all widget mutations. Mutations are published to a Disruptor ring buffer and applied one after
+ * another by one thread, so they need no locks. Callers are completed when the batch their mutation belongs to is
+ * over and its writes are durable: the repository waits for its journal once per batch, so the mutations of a batch
+ * share one fsync. Once the sequencer is stopped it rejects new mutations, the ones submitted before are still applied.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "widget.sequencer.enabled", havingValue = "true")
+public class WidgetMutationSequencer implements DisposableBean {
+
+    private static final EventTranslatorTwoArg<MutationEvent, Supplier<?>, CompletableFuture<Object>> TRANSLATOR =
+        (event, sequence, mutation, result) -> {
+            event.mutation = mutation;
+            event.result = result;
+        };
+
+    private final Disruptor<MutationEvent> disruptor;
+    private final RingBuffer<MutationEvent> ringBuffer;
+    private final List<Runnable> batchCompletions = new ArrayList<>();
+    private final List<CompletableFuture<Object>> batchResults = new ArrayList<>();
+    /**
+     * Submitters publish under the shared lock, so no mutation is published after the writer thread has stopped.
+     */
+    private final ReadWriteLock stopLock = new ReentrantReadWriteLock();
+    private boolean stopped;
+    private WidgetRepository repository;
+    private WidgetRepository.DurabilityScope batchDurability;
+
+    /**
+     * Instantiates a new Widget mutation sequencer and starts its writer thread.
+     *
+     * @param bufferSize the size of ring buffer, must be a power of 2
+     */
+    public WidgetMutationSequencer(@Value("${widget.sequencer.buffer-size:1024}") int bufferSize) {
+        this.disruptor = new Disruptor<>(MutationEvent::new, bufferSize, DaemonThreadFactory.INSTANCE,
+            ProducerType.MULTI, new BlockingWaitStrategy());
+        EventHandler<MutationEvent> writer = this::onEvent;
+        this.disruptor.handleEventsWith(writer);
+        this.ringBuffer = disruptor.start();
+        log.info("Widget mutation sequencer started with buffer size {}", bufferSize);
+    }
+
+    /**
+     * Sets the repository the mutations write to, the writes of a batch are made durable together.
+     *
+     * @param repository the repository
+     */
+    @Autowired(required = false)
+    public void setRepository(WidgetRepository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Apply the mutation on the writer thread and wait for its result.
+     *
+     * @param mutation the mutation
+     * @param <T>      the type of result
+     * @return the result of mutation
+     * @throws IllegalStateException when the sequencer is stopped
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T submit(Supplier<T> mutation) {
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        stopLock.readLock().lock();
+        try {
+            if (stopped) {
+                throw new IllegalStateException("Widget mutation sequencer is stopped");
+            }
+            ringBuffer.publishEvent(TRANSLATOR, mutation, result);
+        } finally {
+            stopLock.readLock().unlock();
+        }
+        try {
+            return (T) result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        stopLock.writeLock().lock();
+        try {
+            stopped = true;
+        } finally {
+            stopLock.writeLock().unlock();
+        }
+        disruptor.shutdown();
+        log.info("Widget mutation sequencer stopped");
+    }
+
+    private void onEvent(MutationEvent event, long sequence, boolean endOfBatch) {
+        CompletableFuture<Object> result = event.result;
+        if (batchDurability == null && repository != null) {
+            batchDurability = repository.deferDurability();
+        }
+        try {
+            Object value = event.mutation.get();
+            batchCompletions.add(() -> result.complete(value));
+        } catch (RuntimeException | Error e) {
+            batchCompletions.add(() -> result.completeExceptionally(e));
+        } finally {
+            batchResults.add(result);
+            event.clear();
+        }
+
+        if (endOfBatch) {
+            log.trace("Completing a batch of {} widget mutations at sequence {}", batchCompletions.size(), sequence);
+            completeBatchDurability();
+            batchCompletions.forEach(Runnable::run);
+            batchCompletions.clear();
+            batchResults.clear();
+        }
+    }
+
+    /**
+     * Wait until the writes of the batch are durable. When the journal fails the mutations of the batch fail with it,
+     * their callers must not take them as durable.
+     */
+    private void completeBatchDurability() {
+        if (batchDurability == null) {
+            return;
+        }
+        try {
+            batchDurability.close();
+        } catch (RuntimeException e) {
+            log.error("Widget mutations of a batch are not durable", e);
+            batchResults.forEach(result -> result.completeExceptionally(e));
+        } finally {
+            batchDurability = null;
+        }
+    }
+
+    private static final class MutationEvent {
+        private Supplier<?> mutation;
+        private CompletableFuture<Object> result;
+
+        private void clear() {
+            mutation = null;
+            result = null;
+        }
+    }
+}
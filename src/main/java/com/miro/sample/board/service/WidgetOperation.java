@@ -0,0 +1,53 @@
+package com.miro.sample.board.service;
+
+import com.miro.sample.board.model.Widget;
+import lombok.Value;
+
+/**
+ * One change of a batch applied by {@link WidgetService#applyAll}.
+ */
+@Value
+public class WidgetOperation {
+
+    /**
+     * The kind of change.
+     */
+    public enum Type {
+        CREATE, UPDATE, DELETE
+    }
+
+    Type type;
+    Long id;
+    Widget widget;
+
+    /**
+     * Create the widget.
+     *
+     * @param widget the new widget
+     * @return the operation
+     */
+    public static WidgetOperation create(Widget widget) {
+        return new WidgetOperation(Type.CREATE, null, widget);
+    }
+
+    /**
+     * Update the widget.
+     *
+     * @param id     the widget id
+     * @param widget the new state of widget
+     * @return the operation
+     */
+    public static WidgetOperation update(Long id, Widget widget) {
+        return new WidgetOperation(Type.UPDATE, id, widget);
+    }
+
+    /**
+     * Delete the widget.
+     *
+     * @param id the widget id
+     * @return the operation
+     */
+    public static WidgetOperation delete(Long id) {
+        return new WidgetOperation(Type.DELETE, id, null);
+    }
+}
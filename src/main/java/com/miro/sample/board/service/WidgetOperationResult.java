@@ -0,0 +1,30 @@
+package com.miro.sample.board.service;
+
+import com.miro.sample.board.model.Widget;
+import lombok.Value;
+
+/**
+ * The result of one {@link WidgetOperation} of a batch.
+ */
+@Value
+public class WidgetOperationResult {
+
+    /**
+     * How the operation ended. FAILED is an error of the storage, the operation may succeed when it is sent again.
+     */
+    public enum Outcome {
+        CREATED, UPDATED, DELETED, NOT_FOUND, CONFLICT, INVALID, FAILED
+    }
+
+    Outcome outcome;
+    Widget widget;
+    String message;
+
+    static WidgetOperationResult of(Outcome outcome, Widget widget) {
+        return new WidgetOperationResult(outcome, widget, null);
+    }
+
+    static WidgetOperationResult failed(Outcome outcome, Exception error) {
+        return new WidgetOperationResult(outcome, null, error.getMessage());
+    }
+}
@@ -1,7 +1,7 @@
 package com.miro.sample.board.service;
 
-import com.miro.sample.board.exceptions.ConcurrentWidgetModificationException;
 import com.miro.sample.board.exceptions.NotFoundException;
+import com.miro.sample.board.exceptions.RevisionExpiredException;
 import com.miro.sample.board.model.Widget;
 import com.miro.sample.board.repository.WidgetRepository;
 import jakarta.validation.ConstraintViolationException;
@@ -10,18 +10,28 @@ import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.validation.annotation.Validated;
 
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * The Widget service.
@@ -30,8 +40,28 @@ import java.util.concurrent.locks.ReentrantLock;
 @Service
 @Validated
 public class WidgetService {
-    private final Map<Long, Lock> locks = new ConcurrentHashMap<>();
+    private static final int WIDGET_LOCK_STRIPES = 64;
+
+    /**
+     * Guards the z order of the board. Writes which keep the z order as it is hold it shared, writes which take or
+     * move a z index hold it exclusively.
+     */
+    private final ReadWriteLock zOrderLock = new ReentrantReadWriteLock();
+    private final Lock[] widgetLocks = new Lock[WIDGET_LOCK_STRIPES];
+    private WidgetChangeFeed changeFeed = new WidgetChangeFeed();
     private WidgetRepository repository;
+    private WidgetMutationSequencer sequencer;
+    private TransactionTemplate transactionTemplate;
+    private TransactionTemplate readOnlyTransactionTemplate;
+
+    /**
+     * Instantiates a new Widget service.
+     */
+    public WidgetService() {
+        for (int i = 0; i < WIDGET_LOCK_STRIPES; i++) {
+            widgetLocks[i] = new ReentrantLock();
+        }
+    }
 
     /**
      * Sets repository.
@@ -43,6 +73,50 @@ public class WidgetService {
         this.repository = repository;
     }
 
+    /**
+     * Sets the optional sequencer. When it is present all mutations are applied by its single writer thread instead
+     * of taking the locks of this service.
+     *
+     * @param sequencer the sequencer
+     */
+    @Autowired(required = false)
+    public void setSequencer(WidgetMutationSequencer sequencer) {
+        this.sequencer = sequencer;
+    }
+
+    /**
+     * Sets the transaction manager. A write and the shift it causes are run in one transaction with it, so they are
+     * committed once and a failure never leaves the board half shifted. It is only used when the repository
+     * {@link WidgetRepository#isTransactional() is transactional}: Spring Boot configures one for the embedded
+     * database in every profile, a memory board would open a transaction for nothing.
+     *
+     * @param transactionManager the transaction manager
+     */
+    @Autowired(required = false)
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * The feed of committed changes of this board.
+     *
+     * @return the change feed
+     */
+    public WidgetChangeFeed getChangeFeed() {
+        return changeFeed;
+    }
+
+    /**
+     * Sets the change feed, before the first write. A board takes over the feed its subscribers waited on.
+     *
+     * @param changeFeed the change feed
+     */
+    void setChangeFeed(WidgetChangeFeed changeFeed) {
+        this.changeFeed = changeFeed;
+    }
+
     /**
      * Create widget.
      *
@@ -56,6 +130,62 @@ public class WidgetService {
         return result;
     }
 
+    /**
+     * Create many widgets at once, with the same result as creating them one after another.
+     *
+     * <p>The z indexes of the whole batch are assigned in one pass: a widget without z goes on top of the board and
+     * of the widgets before it. When no given z can collide with a taken one, which is the case when the board is
+     * seeded or a board is appended from a migration, the batch is saved with one bulk insert. Otherwise the widgets
+     * are created one by one so they shift the board as usual.
+     *
+     * @param widgets the widgets
+     * @return the created widgets
+     */
+    public List<Widget> createAll(@NotNull List<@Valid Widget> widgets) {
+        log.debug("Creating {} widgets", widgets.size());
+        if (sequencer != null) {
+            return sequencer.submit(() -> inTransaction(() -> createAllInZOrder(widgets)));
+        }
+        try (WidgetRepository.DurabilityScope durability = repository.deferDurability()) {
+            zOrderLock.writeLock().lock();
+            try {
+                return inTransaction(() -> createAllInZOrder(widgets));
+            } finally {
+                zOrderLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Apply a batch of creates, updates and deletes in order, under one acquisition of the z order lock, so no other
+     * writer sees or changes the board in the middle of the batch. Consecutive creates take one z pass and one bulk
+     * insert as in {@link #createAll}. Each operation has its own result: one which fails is reported and does not
+     * stop the others.
+     *
+     * <p>The batch is isolated, not atomic. Every operation, or run of consecutive creates, is committed in a
+     * transaction of its own and shifts the board on its own, as if it was sent alone, so the operations before a
+     * failed one stay applied and a reader of another instance on the same database may see a part of the batch. A
+     * failure of the storage is reported as the result of its operation as well, the operations after it are still
+     * applied.
+     *
+     * @param operations the operations
+     * @return the results in the order of operations
+     */
+    public List<WidgetOperationResult> applyAll(@NotNull List<@NotNull WidgetOperation> operations) {
+        log.debug("Applying a batch of {} operations", operations.size());
+        if (sequencer != null) {
+            return sequencer.submit(() -> applyAllInZOrder(operations));
+        }
+        try (WidgetRepository.DurabilityScope durability = repository.deferDurability()) {
+            zOrderLock.writeLock().lock();
+            try {
+                return applyAllInZOrder(operations);
+            } finally {
+                zOrderLock.writeLock().unlock();
+            }
+        }
+    }
+
     /**
      * Update widget.
      *
@@ -82,7 +212,24 @@ public class WidgetService {
      */
     public void delete(@NotNull @Min(1) Long id) {
         log.debug("Removing widget. id={}", id);
-        repository.deleteById(id);
+        if (sequencer != null) {
+            sequencer.submit(() -> {
+                deleteWidget(id);
+                return null;
+            });
+            return;
+        }
+        Lock widgetLock = widgetLock(id);
+        try (WidgetRepository.DurabilityScope durability = repository.deferDurability()) {
+            zOrderLock.readLock().lock();
+            widgetLock.lock();
+            try {
+                deleteWidget(id);
+            } finally {
+                widgetLock.unlock();
+                zOrderLock.readLock().unlock();
+            }
+        }
     }
 
     /**
@@ -119,61 +266,363 @@ public class WidgetService {
         return repository.findAll(pageRequest);
     }
 
-    private synchronized Widget saveWidget(@Valid Widget widget, Long id) {
+    /**
+     * Find the widgets which come after the given position in z order.
+     *
+     * @param z     the z of the last seen widget, null to start from the bottom of the board
+     * @param id    the id of the last seen widget
+     * @param limit the maximum number of widgets
+     * @return the widgets ordered by z
+     */
+    public List<Widget> findAfter(Integer z, Long id, @Min(1) int limit) {
+        log.debug("Find Widgets after z {} id {}", z, id);
+        if (z == null) {
+            return repository.findPageAfter(Integer.MIN_VALUE, Long.MIN_VALUE, limit);
+        }
+        return repository.findPageAfter(z, id, limit);
+    }
+
+    /**
+     * Hand every widget to the visitor in z order, straight from the repository stream, so the board is never loaded
+     * at once. With a database it runs in one read-only transaction, which is open until the last widget is visited.
+     *
+     * @param visitor the visitor
+     */
+    public void exportAll(@NotNull Consumer<Widget> visitor) {
+        log.debug("Export all Widgets");
+        if (!isTransactional()) {
+            visitAll(visitor);
+            return;
+        }
+        readOnlyTransactionTemplate.executeWithoutResult(status -> visitAll(visitor));
+    }
+
+    /**
+     * Find the changes of the board after a revision, so a client which saw the revision catches up with the changes
+     * only.
+     *
+     * @param epoch the epoch of the change feed the revision comes from
+     * @param since the last revision the client has seen
+     * @return the changes in order of revision
+     * @throws RevisionExpiredException when the revision is of another epoch, or the change log does not reach back
+     *                                  to it
+     */
+    public List<WidgetChange> findChangesSince(long epoch, @Min(0) long since) {
+        log.debug("Find changes since revision {}", since);
+        return changeFeed.changesSince(epoch, since).orElseThrow(RevisionExpiredException::new);
+    }
+
+    /**
+     * Find the widgets intersecting the area [x1, x2) x [y1, y2).
+     *
+     * @param x1 the left edge, inclusive
+     * @param y1 the top edge, inclusive
+     * @param x2 the right edge, exclusive
+     * @param y2 the bottom edge, exclusive
+     * @return the widgets ordered by z
+     */
+    public List<Widget> findInArea(@NotNull Integer x1, @NotNull Integer y1, @NotNull Integer x2, @NotNull Integer y2) {
+        log.debug("Find Widgets in area ({}, {}) - ({}, {})", x1, y1, x2, y2);
+        if (x1 >= x2 || y1 >= y2) {
+            return List.of();
+        }
+        return repository.findAllIntersecting(x1, y1, x2, y2);
+    }
+
+    /**
+     * Find the widget on top at the point.
+     *
+     * @param x the x of point
+     * @param y the y of point
+     * @return the widget with the highest z containing the point
+     */
+    public Optional<Widget> findTopmostAt(@NotNull Integer x, @NotNull Integer y) {
+        log.debug("Find topmost Widget at ({}, {})", x, y);
+        return repository.findTopmostAt(x, y);
+    }
+
+    private void deleteWidget(Long id) {
+        repository.deleteById(id);
+        changeFeed.deleted(id);
+    }
+
+    private void visitAll(Consumer<Widget> visitor) {
+        try (Stream<Widget> widgets = repository.streamAllByOrderByZAsc()) {
+            widgets.forEach(visitor);
+        }
+    }
+
+    private Widget saveWidget(@Valid Widget widget, Long id) {
+        if (sequencer != null) {
+            return sequencer.submit(() -> inTransaction(() -> saveWidgetInZOrder(widget, id)));
+        }
+        // the journal is waited for after the locks are released, so writers committing meanwhile share its fsync
+        try (WidgetRepository.DurabilityScope durability = repository.deferDurability()) {
+            if (id != null) {
+                Widget moved = moveWidget(widget, id);
+                if (moved != null) {
+                    return moved;
+                }
+            }
+
+            zOrderLock.writeLock().lock();
+            try {
+                return inTransaction(() -> saveWidgetInZOrder(widget, id));
+            } finally {
+                zOrderLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Update a widget which keeps its z index. It only excludes writers of the same widget and writers which change
+     * the z order, so moves of different widgets run in parallel.
+     *
+     * @param widget the new state of widget
+     * @param id     the widget id
+     * @return the saved widget, or null when the z index changes and the update needs the exclusive z order lock
+     */
+    private Widget moveWidget(Widget widget, Long id) {
+        Lock widgetLock = widgetLock(id);
+        zOrderLock.readLock().lock();
+        widgetLock.lock();
+        try {
+            return inTransaction(() -> {
+                Widget oldWidget = findForUpdate(widget, id);
+                if (!oldWidget.getZ().equals(widget.getZ())) {
+                    return null;
+                }
+                widget.setId(oldWidget.getId());
+                Widget saved = repository.save(widget);
+                changeFeed.updated(saved);
+                return saved;
+            });
+        } finally {
+            widgetLock.unlock();
+            zOrderLock.readLock().unlock();
+        }
+    }
+
+    private Widget saveWidgetInZOrder(Widget widget, Long id) {
         boolean needCheckShiftingZ;
         Widget oldWidget;
 
         if (id == null) { // insert
             needCheckShiftingZ = true;
         } else { // update
-            oldWidget = repository.findById(id).orElseThrow(NotFoundException::new);
-            if (!oldWidget.getVersion().equals(widget.getVersion())) {
-                throw new ObjectOptimisticLockingFailureException(Widget.class, oldWidget.getId());
-            }
+            oldWidget = findForUpdate(widget, id);
             needCheckShiftingZ = !oldWidget.getZ().equals(widget.getZ());
             widget.setId(oldWidget.getId());
         }
 
         if (widget.getZ() == null) {
             Integer maxZ = repository.findMaxZ();
+            if (maxZ == null) {
+                maxZ = 0;
+            }
             checkIntOverflow(maxZ);
             widget.setZ(maxZ + 1);
         } else if (needCheckShiftingZ) {
             shiftWidgets(widget.getZ());
         }
-        return repository.save(widget);
+        Widget saved = repository.save(widget);
+        if (id == null) {
+            changeFeed.created(saved);
+        } else {
+            changeFeed.updated(saved);
+        }
+        return saved;
     }
 
-    private void shiftWidgets(Integer z) {
-        log.trace("Check Shifting for Z Index:{}", z);
-
-        checkIntOverflow(z);
-        Widget match = repository.findByZ(z).orElse(null);
-        if (match == null) {
-            return;
+    private List<Widget> createAllInZOrder(List<Widget> widgets) {
+        if (!assignZInOnePass(widgets)) {
+            log.debug("Creating {} widgets one by one, their z indexes collide", widgets.size());
+            List<Widget> created = new ArrayList<>(widgets.size());
+            for (Widget widget : widgets) {
+                created.add(saveWidgetInZOrder(widget, null));
+            }
+            return created;
         }
-        log.trace("Shifting widget:{}", match);
+        List<Widget> created = new ArrayList<>(widgets.size());
+        repository.saveAll(widgets).forEach(created::add);
+        created.forEach(changeFeed::created);
+        return created;
+    }
 
-        Widget updatedMatch = new Widget(match);
-        updatedMatch.setZ(updatedMatch.getZ() + 1);
+    private List<WidgetOperationResult> applyAllInZOrder(List<WidgetOperation> operations) {
+        List<WidgetOperationResult> results = new ArrayList<>(operations.size());
+        int from = 0;
+        while (from < operations.size()) {
+            int to = from + 1;
+            if (operations.get(from).getType() == WidgetOperation.Type.CREATE) {
+                while (to < operations.size() && operations.get(to).getType() == WidgetOperation.Type.CREATE) {
+                    to++;
+                }
+                if (to - from > 1 && createRun(operations.subList(from, to), results)) {
+                    from = to;
+                    continue;
+                }
+            }
+            for (WidgetOperation operation : operations.subList(from, to)) {
+                results.add(apply(operation));
+            }
+            from = to;
+        }
+        return results;
+    }
 
-        Lock lock = locks.computeIfAbsent(updatedMatch.getId(), k -> new ReentrantLock());
-        if (!lock.tryLock()) {
-            throw new ConcurrentWidgetModificationException("Another request is concurrently modifying the Widget with id "
-                + updatedMatch.getId());
+    /**
+     * Create a run of widgets with one bulk insert, when their z indexes do not collide with the board.
+     *
+     * @return false when the run has to be created one by one
+     */
+    private boolean createRun(List<WidgetOperation> run, List<WidgetOperationResult> results) {
+        List<Widget> widgets = run.stream().map(WidgetOperation::getWidget).toList();
+        try {
+            if (!assignZInOnePass(widgets)) {
+                return false;
+            }
+            Iterable<Widget> created = inTransaction(() -> {
+                Iterable<Widget> saved = repository.saveAll(widgets);
+                saved.forEach(changeFeed::created);
+                return saved;
+            });
+            for (Widget widget : created) {
+                results.add(WidgetOperationResult.of(WidgetOperationResult.Outcome.CREATED, widget));
+            }
+            return true;
+        } catch (ArithmeticException | DataAccessException e) {
+            log.debug("Creating {} widgets one by one", widgets.size(), e);
+            widgets.forEach(widget -> {
+                widget.setId(null);
+                widget.setVersion(null);
+            });
+            return false;
         }
+    }
 
+    private WidgetOperationResult apply(WidgetOperation operation) {
         try {
-            shiftWidgets(z + 1);
-            repository.save(updatedMatch);
-        } finally {
-            lock.unlock();
+            return switch (operation.getType()) {
+                case CREATE -> WidgetOperationResult.of(WidgetOperationResult.Outcome.CREATED,
+                    inTransaction(() -> saveWidgetInZOrder(operation.getWidget(), null)));
+                case UPDATE -> {
+                    if (operation.getWidget().getZ() == null) {
+                        throw new ConstraintViolationException("The Z index could not be null.", null);
+                    }
+                    yield WidgetOperationResult.of(WidgetOperationResult.Outcome.UPDATED,
+                        inTransaction(() -> saveWidgetInZOrder(operation.getWidget(), operation.getId())));
+                }
+                case DELETE -> {
+                    inTransaction(() -> {
+                        if (!repository.existsById(operation.getId())) {
+                            throw new NotFoundException();
+                        }
+                        deleteWidget(operation.getId());
+                        return null;
+                    });
+                    yield WidgetOperationResult.of(WidgetOperationResult.Outcome.DELETED, null);
+                }
+            };
+        } catch (NotFoundException e) {
+            return WidgetOperationResult.failed(WidgetOperationResult.Outcome.NOT_FOUND, e);
+        } catch (ObjectOptimisticLockingFailureException e) {
+            return WidgetOperationResult.failed(WidgetOperationResult.Outcome.CONFLICT, e);
+        } catch (ArithmeticException | ConstraintViolationException e) {
+            return WidgetOperationResult.failed(WidgetOperationResult.Outcome.INVALID, e);
+        } catch (DataAccessException e) {
+            // the operations before are committed, so the batch goes on and every operation gets its result
+            log.warn("Operation {} of a batch failed", operation.getType(), e);
+            return WidgetOperationResult.failed(WidgetOperationResult.Outcome.FAILED, e);
+        }
+    }
+
+    /**
+     * Assign the z indexes of new widgets above the current top of board, unless a given z may collide.
+     *
+     * @param widgets the new widgets
+     * @return false when a given z collides, the widgets are left as they were
+     */
+    private boolean assignZInOnePass(List<Widget> widgets) {
+        Integer boardMaxZ = repository.findMaxZ();
+        long maxZ = boardMaxZ == null ? 0L : boardMaxZ;
+        long boardTop = boardMaxZ == null ? Long.MIN_VALUE : boardMaxZ;
+        Set<Integer> taken = new HashSet<>();
+        int[] assigned = new int[widgets.size()];
+        for (int i = 0; i < widgets.size(); i++) {
+            Integer z = widgets.get(i).getZ();
+            if (z == null) {
+                if (maxZ >= Integer.MAX_VALUE) {
+                    throw zIndexOverflow();
+                }
+                z = (int) ++maxZ;
+            } else if (z <= boardTop || !taken.add(z)) {
+                return false;
+            }
+            taken.add(z);
+            maxZ = Math.max(maxZ, z);
+            assigned[i] = z;
+        }
+        for (int i = 0; i < widgets.size(); i++) {
+            widgets.get(i).setZ(assigned[i]);
+        }
+        return true;
+    }
+
+    /**
+     * Run the work in one transaction. It is called under the locks, so the transaction is committed before the next
+     * writer reads the board.
+     */
+    private <T> T inTransaction(Supplier<T> work) {
+        if (!isTransactional()) {
+            return work.get();
         }
+        return transactionTemplate.execute(status -> work.get());
+    }
+
+    private boolean isTransactional() {
+        return transactionTemplate != null && repository.isTransactional();
+    }
+
+    private Widget findForUpdate(Widget widget, Long id) {
+        Widget oldWidget = repository.findById(id).orElseThrow(NotFoundException::new);
+        if (!oldWidget.getVersion().equals(widget.getVersion())) {
+            throw new ObjectOptimisticLockingFailureException(Widget.class, oldWidget.getId());
+        }
+        return oldWidget;
+    }
+
+    private Lock widgetLock(Long id) {
+        return widgetLocks[Math.floorMod(id.hashCode(), WIDGET_LOCK_STRIPES)];
+    }
+
+    /**
+     * Make room for a widget at the given z index. Only the run of occupied z indexes starting at z is moved, one
+     * step up into the first free slot above it, so widgets after the gap keep their z. The whole run is moved by
+     * the repository in a single bulk operation.
+     *
+     * @param z the z index which is going to be taken
+     */
+    private void shiftWidgets(Integer z) {
+        log.trace("Check Shifting for Z Index:{}", z);
+
+        if (repository.findByZ(z).isEmpty()) {
+            return;
+        }
+        checkIntOverflow(z);
+        Integer freeZ = repository.findFirstFreeZ(z).orElseThrow(WidgetService::zIndexOverflow);
+        int shifted = repository.shiftZ(z, freeZ);
+        changeFeed.shifted(z, freeZ);
+        log.trace("Shifted {} widgets in Z Index range [{}, {})", shifted, z, freeZ);
     }
 
     private void checkIntOverflow(Integer maxZ) {
         if (maxZ.equals(Integer.MAX_VALUE)) {
-            throw new ArithmeticException("The maximum size of z index is reached.");
+            throw zIndexOverflow();
         }
     }
+
+    private static ArithmeticException zIndexOverflow() {
+        return new ArithmeticException("The maximum size of z index is reached.");
+    }
 }
@@ -52,6 +52,16 @@ public interface WidgetBoardTest {
             .build();
     }
 
+    default Widget area(int x, int y, int width, int height, int z) {
+        return Widget.builder()
+            .x(x)
+            .y(y)
+            .z(z)
+            .width(width)
+            .height(height)
+            .build();
+    }
+
     default Widget newWidget(Integer zIndex) {
         return Widget.builder()
             .z(zIndex)
@@ -2,9 +2,18 @@ package com.miro.sample.board.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.miro.sample.board.WidgetBoardTest;
+import com.miro.sample.board.dto.PointDto;
+import com.miro.sample.board.dto.WidgetCursor;
 import com.miro.sample.board.dto.WidgetDto;
+import com.miro.sample.board.dto.WidgetOperationDto;
+import com.miro.sample.board.dto.WidgetOperationType;
+import com.miro.sample.board.exceptions.RevisionExpiredException;
 import com.miro.sample.board.mapper.WidgetMapper;
 import com.miro.sample.board.model.Widget;
+import com.miro.sample.board.service.BoardRegistry;
+import com.miro.sample.board.service.WidgetChange;
+import com.miro.sample.board.service.WidgetChangeFeed;
+import com.miro.sample.board.service.WidgetOperationResult;
 import com.miro.sample.board.service.WidgetService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -16,23 +25,35 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
 
 import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 
 @WebMvcTest
 @ContextConfiguration(classes = {WidgetController.class, GeneralExceptionHandler.class})
@@ -52,8 +73,14 @@ class WidgetControllerTest implements WidgetBoardTest {
     @MockBean
     private WidgetService service;
 
+    @MockBean
+    private BoardRegistry boards;
+
+    private final WidgetChangeFeed changeFeed = new WidgetChangeFeed();
+
     @BeforeEach
     void setup() {
+        Mockito.when(service.getChangeFeed()).thenReturn(changeFeed);
     }
 
     @Test
@@ -162,6 +189,67 @@ class WidgetControllerTest implements WidgetBoardTest {
         assertEquals(widgetDto.getHeight(), createdWidgetDto.getHeight());
     }
 
+    @Test
+    void getWidget_ifNoneMatchVersion_notModified() throws Exception {
+        Widget widget = newWidget();
+        widget.setId(3L);
+        widget.setVersion(2L);
+        widget.setModifiedDate(1000L);
+        Mockito.when(service.findById(3L)).thenReturn(Optional.of(widget));
+        Mockito.when(widgetMapper.widgetToDto(any())).thenReturn(newWidgetDto());
+
+        String etag = mvc.perform(get(BASE_URL + "/3"))
+            .andExpect(MockMvcResultMatchers.status().isOk())
+            .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertEquals("\"2-1000-json\"", etag);
+        Mockito.clearInvocations(widgetMapper);
+
+        mvc.perform(get(BASE_URL + "/3").header(HttpHeaders.IF_NONE_MATCH, etag))
+            .andExpect(MockMvcResultMatchers.status().isNotModified())
+            .andExpect(content().string(""));
+        verify(widgetMapper, never()).widgetToDto(any());
+
+        widget.setVersion(3L);
+        mvc.perform(get(BASE_URL + "/3").header(HttpHeaders.IF_NONE_MATCH, etag))
+            .andExpect(MockMvcResultMatchers.status().isOk());
+    }
+
+    @Test
+    void getAllWidget_ifNoneMatchRevision_notModifiedWithoutRead() throws Exception {
+        String etag = mvc.perform(get(BASE_URL).param("limit", "10"))
+            .andExpect(MockMvcResultMatchers.status().isOk())
+            .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotNull(etag);
+        Mockito.clearInvocations(service);
+
+        mvc.perform(get(BASE_URL).param("limit", "10").header(HttpHeaders.IF_NONE_MATCH, etag))
+            .andExpect(MockMvcResultMatchers.status().isNotModified());
+        verify(service, never()).findAfter(any(), any(), anyInt());
+    }
+
+    @Test
+    void getWidget_otherFormat_otherETagVaryAccept() throws Exception {
+        Widget widget = newWidget();
+        widget.setId(3L);
+        widget.setVersion(2L);
+        widget.setModifiedDate(1000L);
+        Mockito.when(service.findById(3L)).thenReturn(Optional.of(widget));
+        Mockito.when(widgetMapper.widgetToDto(any())).thenReturn(newWidgetDto());
+
+        String etag = mvc.perform(get(BASE_URL + "/3").accept(MediaType.APPLICATION_JSON))
+            .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT))
+            .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mvc.perform(get(BASE_URL + "/3").accept(MediaType.APPLICATION_CBOR).header(HttpHeaders.IF_NONE_MATCH, etag))
+            .andExpect(MockMvcResultMatchers.status().isOk())
+            .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_CBOR))
+            .andExpect(header().string(HttpHeaders.ETAG, "\"2-1000-cbor\""))
+            .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT));
+        mvc.perform(get(BASE_URL + "/3").accept(MediaType.APPLICATION_CBOR).header(HttpHeaders.IF_NONE_MATCH, "\"2-1000-cbor\""))
+            .andExpect(MockMvcResultMatchers.status().isNotModified())
+            .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT));
+    }
+
     @Test
     void getAllWidget_success() throws Exception {
         long id = 1;
@@ -191,6 +279,111 @@ class WidgetControllerTest implements WidgetBoardTest {
         assertEquals(size, sizeArg.getValue());
     }
 
+    @Test
+    void getWidgetsAfterCursor_success() throws Exception {
+        WidgetDto widgetDto = newWidgetDtoWithZ(4);
+        Widget widget = new Widget(widgetDto.getId(), widgetDto.getVersion(), widgetDto.getHeight(), widgetDto.getWidth(),
+            widgetDto.getX(), widgetDto.getY(), widgetDto.getZ(), System.currentTimeMillis());
+        Mockito.when(service.findAfter(3, 7L, 1)).thenReturn(List.of(widget));
+        Mockito.when(widgetMapper.widgetToDtoList(any())).thenReturn(List.of(widgetDto));
+
+        mvc.perform(get(BASE_URL)
+                .param("after", new WidgetCursor(3, 7L).encode())
+                .param("limit", "1"))
+            .andExpect(MockMvcResultMatchers.status().isOk())
+            .andExpect(content().contentType(APPLICATION_JSON))
+            .andExpect(jsonPath("$.content[0].z", is(4)))
+            .andExpect(jsonPath("$.next", is(new WidgetCursor(4, widgetDto.getId()).encode())));
+    }
+
+    @Test
+    void getWidgetsAfterCursor_lastPage_noNextCursor() throws Exception {
+        Mockito.when(service.findAfter(null, null, 10)).thenReturn(List.of());
+        Mockito.when(widgetMapper.widgetToDtoList(any())).thenReturn(List.of());
+
+        mvc.perform(get(BASE_URL).param("limit", "10"))
+            .andExpect(MockMvcResultMatchers.status().isOk())
+            .andExpect(jsonPath("$.content").isEmpty())
+            .andExpect(jsonPath("$.next").doesNotExist());
+    }
+
+    @Test
+    void getWidgets_sizeOverLimit_badRequest() throws Exception {
+        mvc.perform(get(BASE_URL).param("size", "2000000000"))
+            .andExpect(MockMvcResultMatchers.status().isBadRequest());
+        mvc.perform(get(BASE_URL).param("size", "0"))
+            .andExpect(MockMvcResultMatchers.status().isBadRequest());
+        mvc.perform(get(BASE_URL).param("page", "-1"))
+            .andExpect(MockMvcResultMatchers.status().isBadRequest());
+
+        verify(service, Mockito.never()).findAll(anyInt(), anyInt());
+    }
+
+    @Test
+    void getWidgetsAfterCursor_invalidCursor() throws Exception {
+        mvc.perform(get(BASE_URL).param("after", "not a cursor").param("limit", "10"))
+            .andExpect(MockMvcResultMatchers.status().isBadRequest())
+            .andExpect(content().contentType(MediaType.APPLICATION_JSON_VALUE));
+    }
+
+    @Test
+    void getWidgetsInArea_success() throws Exception {
+        WidgetDto widgetDto = newWidgetDtoWithZ(2);
+        Widget widget = new Widget(widgetDto.getId(), widgetDto.getVersion(), widgetDto.getHeight(), widgetDto.getWidth(),
+            widgetDto.getX(), widgetDto.getY(), widgetDto.getZ(), System.currentTimeMillis());
+        Mockito.when(service.findInArea(0, -5, 100, 50)).thenReturn(List.of(widget));
+        Mockito.when(widgetMapper.widgetToDtoList(List.of(widget))).thenReturn(List.of(widgetDto));
+
+        mvc.perform(get(BASE_URL)
+                .param("x1", "0")
+                .param("y1", "-5")
+                .param("x2", "100")
+                .param("y2", "50"))
+            .andExpect(MockMvcResultMatchers.status().isOk())
+            .andExpect(content().contentType(APPLICATION_JSON))
+            .andExpect(jsonPath("$[0].z", is(2)));
+    }
+
+    @Test
+    void getWidgetAt_success() throws Exception {
+        WidgetDto widgetDto = newWidgetDtoWithZ(3);
+        Widget widget = new Widget(widgetDto.getId(), widgetDto.getVersion(), widgetDto.getHeight(), widgetDto.getWidth(),
+            widgetDto.getX(), widgetDto.getY(), widgetDto.getZ(), System.currentTimeMillis());
+        Mockito.when(service.findTopmostAt(5, 6)).thenReturn(Optional.of(widget));
+        Mockito.when(widgetMapper.widgetToDto(widget)).thenReturn(widgetDto);
+
+        mvc.perform(get(BASE_URL + "/at").param("x", "5").param("y", "6"))
+            .andExpect(MockMvcResultMatchers.status().isOk())
+            .andExpect(jsonPath("$.z", is(3)));
+    }
+
+    @Test
+    void getWidgetAt_notFound() throws Exception {
+        Mockito.when(service.findTopmostAt(5, 6)).thenReturn(Optional.empty());
+
+        mvc.perform(get(BASE_URL + "/at").param("x", "5").param("y", "6"))
+            .andExpect(MockMvcResultMatchers.status().isNotFound());
+    }
+
+    @Test
+    void getWidgetsAt_success() throws Exception {
+        WidgetDto widgetDto = newWidgetDtoWithZ(3);
+        Widget widget = new Widget(widgetDto.getId(), widgetDto.getVersion(), widgetDto.getHeight(), widgetDto.getWidth(),
+            widgetDto.getX(), widgetDto.getY(), widgetDto.getZ(), System.currentTimeMillis());
+        Mockito.when(service.findTopmostAt(5, 6)).thenReturn(Optional.of(widget));
+        Mockito.when(service.findTopmostAt(7, 8)).thenReturn(Optional.empty());
+        Mockito.when(widgetMapper.widgetToDto(widget)).thenReturn(widgetDto);
+
+        mvc.perform(post(BASE_URL + "/at")
+                .content(objectMapper.writeValueAsBytes(List.of(new PointDto(5, 6), new PointDto(7, 8))))
+                .contentType(MediaType.APPLICATION_JSON_VALUE))
+            .andExpect(MockMvcResultMatchers.status().isOk())
+            .andExpect(jsonPath("$[0].x", is(5)))
+            .andExpect(jsonPath("$[0].widget.z", is(3)))
+            .andExpect(jsonPath("$[1].y", is(8)))
+            .andExpect(jsonPath("$[1].widget").doesNotExist());
+    }
+
     @Test
     void getWidget_notFound() throws Exception {
         Long id = 1L;
@@ -228,4 +421,174 @@ class WidgetControllerTest implements WidgetBoardTest {
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON_VALUE))
                 .andReturn();
     }
+
+    @Test
+    void createWidgetOnBoard_success() throws Exception {
+        WidgetDto widgetDto = newWidgetDto();
+        WidgetService board = Mockito.mock(WidgetService.class);
+        Mockito.when(boards.board("board-1")).thenReturn(board);
+        Mockito.when(board.create(any())).thenReturn(newWidget());
+        Mockito.when(widgetMapper.widgetToDto(any())).thenReturn(widgetDto);
+
+        mvc.perform(post("/api/v1/boards/board-1/widgets")
+            .content(objectMapper.writeValueAsBytes(widgetDto))
+            .contentType(MediaType.APPLICATION_JSON_VALUE))
+            .andExpect(MockMvcResultMatchers.status().isCreated());
+
+        verify(board).create(any());
+        verify(service, never()).create(any());
+    }
+
+    @Test
+    void getWidgetOnBoard_notFound() throws Exception {
+        WidgetService board = Mockito.mock(WidgetService.class);
+        Mockito.when(boards.boardToRead("board-1")).thenReturn(board);
+        Mockito.when(board.findById(1L)).thenReturn(Optional.empty());
+
+        mvc.perform(get("/api/v1/boards/board-1/widgets/1"))
+            .andExpect(MockMvcResultMatchers.status().isNotFound());
+
+        verify(boards, never()).board(any());
+    }
+
+    @Test
+    void getWidgetOnBoard_invalidBoardId() throws Exception {
+        mvc.perform(get("/api/v1/boards/board.1/widgets/1"))
+            .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    @Test
+    void applyBatch_perItemStatus() throws Exception {
+        WidgetDto widgetDto = newWidgetDto();
+        Mockito.when(service.applyAll(any())).thenReturn(List.of(
+            new WidgetOperationResult(WidgetOperationResult.Outcome.CREATED, newWidget(), null),
+            new WidgetOperationResult(WidgetOperationResult.Outcome.NOT_FOUND, null, "not found")));
+        Mockito.when(widgetMapper.widgetToDto(any())).thenReturn(widgetDto);
+        List<WidgetOperationDto> operations = List.of(
+            WidgetOperationDto.builder().type(WidgetOperationType.CREATE).widget(widgetDto).build(),
+            WidgetOperationDto.builder().type(WidgetOperationType.DELETE).id(5L).build());
+
+        mvc.perform(post(BASE_URL + "/batch")
+            .content(objectMapper.writeValueAsBytes(operations))
+            .contentType(MediaType.APPLICATION_JSON_VALUE))
+            .andExpect(MockMvcResultMatchers.status().isOk())
+            .andExpect(jsonPath("$[0].status", is(201)))
+            .andExpect(jsonPath("$[0].widget.x", is(widgetDto.getX())))
+            .andExpect(jsonPath("$[1].status", is(404)));
+    }
+
+    @Test
+    void applyBatch_incompleteOperation_badRequest() throws Exception {
+        List<WidgetOperationDto> operations = List.of(WidgetOperationDto.builder().type(WidgetOperationType.UPDATE).build());
+
+        mvc.perform(post(BASE_URL + "/batch")
+            .content(objectMapper.writeValueAsBytes(operations))
+            .contentType(MediaType.APPLICATION_JSON_VALUE))
+            .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    @Test
+    void exportWidgets_oneWidgetPerLine() throws Exception {
+        WidgetDto first = newWidgetDto();
+        WidgetDto second = newWidgetDto();
+        Widget firstWidget = newWidget(1);
+        Widget secondWidget = newWidget(2);
+        Mockito.doAnswer(invocation -> {
+            Consumer<Widget> visitor = invocation.getArgument(0);
+            visitor.accept(firstWidget);
+            visitor.accept(secondWidget);
+            return null;
+        }).when(service).exportAll(any());
+        Mockito.when(widgetMapper.widgetToDto(firstWidget)).thenReturn(first);
+        Mockito.when(widgetMapper.widgetToDto(secondWidget)).thenReturn(second);
+
+        MvcResult result = mvc.perform(get(BASE_URL + "/export"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        String expected = objectMapper.writeValueAsString(first) + "\n" + objectMapper.writeValueAsString(second) + "\n";
+        mvc.perform(asyncDispatch(result))
+            .andExpect(MockMvcResultMatchers.status().isOk())
+            .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON))
+            .andExpect(content().string(expected));
+    }
+
+    @Test
+    void streamChanges_subscribesToFeed() throws Exception {
+        mvc.perform(get(BASE_URL + "/stream").accept(MediaType.TEXT_EVENT_STREAM))
+            .andExpect(request().asyncStarted());
+
+        assertEquals(1, changeFeed.subscribers());
+    }
+
+    @Test
+    void getChangesSince_success() throws Exception {
+        Widget widget = newWidget(1);
+        WidgetDto widgetDto = newWidgetDto();
+        Mockito.when(service.findChangesSince(0xabL, 4L)).thenReturn(List.of(
+            new WidgetChange(5L, WidgetChange.Type.UPDATED, 1L, widget, null, null),
+            new WidgetChange(6L, WidgetChange.Type.DELETED, 2L, null, null, null)));
+        Mockito.when(widgetMapper.widgetToDto(widget)).thenReturn(widgetDto);
+
+        mvc.perform(get(BASE_URL + "/changes").param("since", "ab-4"))
+            .andExpect(MockMvcResultMatchers.status().isOk())
+            .andExpect(jsonPath("$.revision", is(6)))
+            .andExpect(jsonPath("$.next", is("ab-6")))
+            .andExpect(jsonPath("$.changes[0].type", is("UPDATED")))
+            .andExpect(jsonPath("$.changes[0].widget.x", is(widgetDto.getX())))
+            .andExpect(jsonPath("$.changes[1].type", is("DELETED")))
+            .andExpect(jsonPath("$.changes[1].id", is(2)));
+    }
+
+    @Test
+    void getChangesSince_expiredRevision_gone() throws Exception {
+        Mockito.when(service.findChangesSince(0xabL, 1L)).thenThrow(new RevisionExpiredException());
+
+        mvc.perform(get(BASE_URL + "/changes").param("since", "ab-1"))
+            .andExpect(MockMvcResultMatchers.status().isGone());
+    }
+
+    @Test
+    void getChangesSince_cursorWithoutEpoch_badRequest() throws Exception {
+        mvc.perform(get(BASE_URL + "/changes").param("since", "1"))
+            .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    @Test
+    void getChangesSince_negativeRevision_badRequest() throws Exception {
+        mvc.perform(get(BASE_URL + "/changes").param("since", "ab--1"))
+            .andExpect(MockMvcResultMatchers.status().isBadRequest());
+
+        verify(service, Mockito.never()).findChangesSince(Mockito.anyLong(), Mockito.anyLong());
+    }
+
+    @Test
+    void getWidgetsInArea_binaryFormats_fewerBytesPerWidget() throws Exception {
+        List<WidgetDto> widgets = new ArrayList<>();
+        for (long id = 1; id <= 100; id++) {
+            WidgetDto widget = newWidgetDto(id);
+            widget.setModifiedDate(LocalDateTime.of(2023, 1, 1, 12, 0).plusSeconds(id));
+            widgets.add(widget);
+        }
+        Mockito.when(widgetMapper.widgetToDtoList(any())).thenReturn(widgets);
+
+        byte[] json = area(APPLICATION_JSON_VALUE);
+        byte[] smile = area(WidgetController.APPLICATION_SMILE_VALUE);
+        byte[] cbor = area(MediaType.APPLICATION_CBOR_VALUE);
+
+        WidgetDto[] fromSmile = Jackson2ObjectMapperBuilder.smile().build().readValue(smile, WidgetDto[].class);
+        WidgetDto[] fromCbor = Jackson2ObjectMapperBuilder.cbor().build().readValue(cbor, WidgetDto[].class);
+        assertEquals(widgets, List.of(fromSmile));
+        assertEquals(widgets, List.of(fromCbor));
+        assertTrue(smile.length < json.length, "smile " + smile.length + " bytes, json " + json.length + " bytes");
+        assertTrue(cbor.length < json.length, "cbor " + cbor.length + " bytes, json " + json.length + " bytes");
+    }
+
+    private byte[] area(String mediaType) throws Exception {
+        return mvc.perform(get(BASE_URL).param("x1", "0").param("y1", "0").param("x2", "10").param("y2", "10")
+                .accept(mediaType))
+            .andExpect(MockMvcResultMatchers.status().isOk())
+            .andExpect(content().contentTypeCompatibleWith(mediaType))
+            .andReturn().getResponse().getContentAsByteArray();
+    }
 }
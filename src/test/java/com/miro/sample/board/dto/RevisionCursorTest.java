@@ -0,0 +1,26 @@
+package com.miro.sample.board.dto;
+
+import com.miro.sample.board.exceptions.InvalidCursorException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RevisionCursorTest {
+
+    @Test
+    void encodeThenDecode() {
+        RevisionCursor cursor = new RevisionCursor(-3L, 42L);
+
+        assertEquals("fffffffffffffffd-42", cursor.encode());
+        assertEquals(cursor, RevisionCursor.decode(cursor.encode()));
+    }
+
+    @Test
+    void decode_invalidCursor_fail() {
+        assertThrows(InvalidCursorException.class, () -> RevisionCursor.decode("42"));
+        assertThrows(InvalidCursorException.class, () -> RevisionCursor.decode("xyz-42"));
+        assertThrows(InvalidCursorException.class, () -> RevisionCursor.decode("ab-"));
+        assertThrows(InvalidCursorException.class, () -> RevisionCursor.decode("ab--1"));
+    }
+}
@@ -0,0 +1,24 @@
+package com.miro.sample.board.dto;
+
+import com.miro.sample.board.exceptions.InvalidCursorException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class WidgetCursorTest {
+
+    @Test
+    void encodeThenDecode() {
+        WidgetCursor cursor = new WidgetCursor(-7, 42L);
+
+        assertEquals(cursor, WidgetCursor.decode(cursor.encode()));
+    }
+
+    @Test
+    void decode_invalidCursor_fail() {
+        assertThrows(InvalidCursorException.class, () -> WidgetCursor.decode("not a cursor"));
+        assertThrows(InvalidCursorException.class, () -> WidgetCursor.decode("MTI"));
+        assertThrows(InvalidCursorException.class, () -> WidgetCursor.decode("YTpi"));
+    }
+}
@@ -0,0 +1,106 @@
+package com.miro.sample.board.repository;
+
+import com.miro.sample.board.WidgetBoardTest;
+import com.miro.sample.board.model.Widget;
+import org.apache.commons.collections4.IterableUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoardSnapshotTest implements WidgetBoardTest {
+
+    @Test
+    void zAt() {
+        BoardSnapshot board = BoardSnapshot.EMPTY.put(newWidget(30)).put(newWidget(-5)).put(newWidget(10));
+
+        assertEquals(3, board.size());
+        assertEquals(OptionalInt.of(-5), board.zAt(0));
+        assertEquals(OptionalInt.of(10), board.zAt(1));
+        assertEquals(OptionalInt.of(30), board.zAt(2));
+        assertTrue(board.zAt(3).isEmpty());
+        assertEquals(OptionalInt.of(30), board.maxZ());
+    }
+
+    @Test
+    void firstFreeZ() {
+        BoardSnapshot board = BoardSnapshot.EMPTY;
+        for (int z : List.of(1, 2, 3, 5, 6, Integer.MAX_VALUE)) {
+            board = board.put(newWidget(z));
+        }
+
+        assertEquals(OptionalInt.of(4), board.firstFreeZ(1));
+        assertEquals(OptionalInt.of(7), board.firstFreeZ(5));
+        assertEquals(OptionalInt.of(0), board.firstFreeZ(0));
+        assertTrue(board.firstFreeZ(Integer.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    void ofSorted() {
+        List<Widget> widgets = new ArrayList<>();
+        for (int z = 0; z < 100; z += 2) {
+            widgets.add(newWidget(z));
+        }
+
+        BoardSnapshot board = BoardSnapshot.ofSorted(widgets, 7L).put(newWidget(1));
+
+        assertEquals(51, board.size());
+        assertEquals(7L, board.getRevision());
+        assertEquals(OptionalInt.of(3), board.firstFreeZ(0));
+        assertEquals(widgets.get(10), board.findByZ(20).orElseThrow());
+    }
+
+    @Test
+    void ofSorted_unordered_fail() {
+        assertThrows(IllegalArgumentException.class, () -> BoardSnapshot.ofSorted(List.of(newWidget(2), newWidget(1)), 0L));
+    }
+
+    @Test
+    void changes_leaveOldSnapshotUntouched() {
+        BoardSnapshot before = BoardSnapshot.EMPTY.put(newWidget(1)).put(newWidget(2));
+
+        BoardSnapshot after = before.remove(1).put(newWidget(3)).nextRevision();
+
+        assertEquals(List.of(1, 2), IterableUtils.toList(before).stream().map(Widget::getZ).toList());
+        assertEquals(List.of(2, 3), IterableUtils.toList(after).stream().map(Widget::getZ).toList());
+        assertEquals(before.getRevision() + 1, after.getRevision());
+    }
+
+    @Test
+    void randomOperations_matchTreeMap() {
+        Random random = new Random(42);
+        TreeMap<Integer, Widget> expected = new TreeMap<>();
+        BoardSnapshot board = BoardSnapshot.EMPTY;
+        for (int i = 0; i < 5000; i++) {
+            int z = random.nextInt(300);
+            if (random.nextInt(3) == 0) {
+                board = board.remove(z);
+                expected.remove(z);
+            } else {
+                Widget widget = newWidget(z);
+                board = board.put(widget);
+                expected.put(z, widget);
+            }
+
+            int from = random.nextInt(300);
+            int free = from;
+            while (expected.containsKey(free)) {
+                free++;
+            }
+            assertEquals(expected.size(), board.size());
+            assertEquals(OptionalInt.of(free), board.firstFreeZ(from));
+        }
+        List<Widget> widgets = new ArrayList<>(expected.values());
+        assertEquals(widgets, IterableUtils.toList(board));
+        assertEquals(widgets.subList(10, 20), board.findPage(10, 10));
+        assertEquals(widgets.subList(widgets.size() - 5, widgets.size()), board.findPage(widgets.size() - 5, Integer.MAX_VALUE));
+        assertEquals(new ArrayList<>(expected.subMap(50, 100).values()), board.findRange(50, 100));
+    }
+}
@@ -0,0 +1,119 @@
+package com.miro.sample.board.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.miro.sample.board.WidgetBoardTest;
+import com.miro.sample.board.model.Widget;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@ActiveProfiles("h2")
+@SpringBootTest
+class CachingWidgetRepositoryTest implements WidgetBoardTest {
+
+    @Autowired
+    private CachingWidgetRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        repository.deleteAll();
+    }
+
+    @Test
+    void findById_secondRead_hit() {
+        Widget widget = repository.save(newWidget(1));
+        long hits = repository.stats().hitCount();
+
+        repository.findById(widget.getId());
+        repository.findById(widget.getId());
+
+        assertEquals(hits + 2, repository.stats().hitCount());
+    }
+
+    @Test
+    void findById_copy_cachedWidgetUnchanged() {
+        Widget widget = repository.save(newWidget(1));
+
+        repository.findById(widget.getId()).orElseThrow().setX(500);
+
+        assertEquals(widget.getX(), repository.findById(widget.getId()).orElseThrow().getX());
+    }
+
+    @Test
+    void save_update_newVersionCached() {
+        Widget widget = repository.save(newWidget(1));
+        widget.setX(42);
+
+        Widget updated = repository.save(widget);
+
+        Widget cached = repository.findById(widget.getId()).orElseThrow();
+        assertEquals(42, cached.getX());
+        assertEquals(updated.getVersion(), cached.getVersion());
+    }
+
+    @Test
+    void shiftZ_shiftedWidgetsEvicted() {
+        Widget shifted = repository.save(newWidget(1));
+        Widget untouched = repository.save(newWidget(5));
+        repository.findById(shifted.getId());
+        repository.findById(untouched.getId());
+
+        repository.shiftZ(1, 2);
+
+        Widget reloaded = repository.findById(shifted.getId()).orElseThrow();
+        assertEquals(2, reloaded.getZ());
+        assertEquals(shifted.getVersion() + 1, reloaded.getVersion());
+        assertEquals(untouched, repository.findById(untouched.getId()).orElseThrow());
+    }
+
+    @Test
+    void findById_loadOverlapsShift_preShiftStateNotCached() throws Exception {
+        DatabaseWidgetRepository database = mock(DatabaseWidgetRepository.class);
+        CachingWidgetRepository cache = new CachingWidgetRepository(database, 100, 0);
+        Widget beforeShift = newWidget(1);
+        beforeShift.setId(1L);
+        beforeShift.setVersion(0L);
+        Widget afterShift = new Widget(beforeShift);
+        afterShift.setZ(2);
+        afterShift.setVersion(1L);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch shifted = new CountDownLatch(1);
+        when(database.findById(1L)).thenAnswer(invocation -> {
+            loading.countDown();
+            shifted.await();
+            return Optional.of(beforeShift);
+        }).thenReturn(Optional.of(afterShift));
+        when(database.shiftZ(1, 2)).thenReturn(1);
+
+        CompletableFuture<Optional<Widget>> load = CompletableFuture.supplyAsync(() -> cache.findById(1L));
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+        cache.shiftZ(1, 2);
+        shifted.countDown();
+
+        assertEquals(1, load.get(10, TimeUnit.SECONDS).orElseThrow().getZ());
+        assertEquals(2, cache.findById(1L).orElseThrow().getZ());
+        assertEquals(2, cache.findById(1L).orElseThrow().getZ());
+        cache.destroy();
+    }
+
+    @Test
+    void deleteById_evicted() {
+        Widget widget = repository.save(newWidget(1));
+        repository.findById(widget.getId());
+
+        repository.deleteById(widget.getId());
+
+        assertTrue(repository.findById(widget.getId()).isEmpty());
+    }
+}
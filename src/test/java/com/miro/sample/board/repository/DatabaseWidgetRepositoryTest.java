@@ -1,6 +1,7 @@
 package com.miro.sample.board.repository;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -11,6 +12,7 @@ import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import com.miro.sample.board.WidgetBoardTest;
 import com.miro.sample.board.model.Widget;
@@ -22,6 +24,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
 
 @ActiveProfiles("h2")
 @SpringBootTest
@@ -35,6 +38,17 @@ class DatabaseWidgetRepositoryTest implements WidgetBoardTest {
         repository.deleteAll();
     }
 
+    @Test
+    @Transactional
+    void streamAllByOrderByZAsc() {
+        Widget widget1 = repository.save(newWidget(3));
+        Widget widget2 = repository.save(newWidget(-2));
+
+        try (Stream<Widget> widgets = repository.streamAllByOrderByZAsc()) {
+            assertEquals(List.of(widget2.getId(), widget1.getId()), widgets.map(Widget::getId).toList());
+        }
+    }
+
     @Test
     void findAllByOrderByZAsc() {
         Widget widget1 = repository.save(newWidget(1));
@@ -70,6 +84,85 @@ class DatabaseWidgetRepositoryTest implements WidgetBoardTest {
         assertEquals(max, maxZSaved);
     }
 
+    @Test
+    void findPageAfter() {
+        Widget widget1 = repository.save(newWidget(1));
+        Widget widget2 = repository.save(newWidget(2));
+        Widget widget3 = repository.save(newWidget(5));
+
+        assertEquals(List.of(widget1, widget2), repository.findPageAfter(Integer.MIN_VALUE, Long.MIN_VALUE, 2));
+        assertEquals(List.of(widget3), repository.findPageAfter(widget2.getZ(), widget2.getId(), 2));
+        assertTrue(repository.findPageAfter(widget3.getZ(), widget3.getId(), 2).isEmpty());
+    }
+
+    @Test
+    void findFirstFreeZ() {
+        List<Widget> widgets = List.of(newWidget(1), newWidget(2), newWidget(3), newWidget(5));
+        IterableUtils.toList(repository.saveAll(widgets));
+
+        assertEquals(Optional.of(4), repository.findFirstFreeZ(1));
+        assertEquals(Optional.of(6), repository.findFirstFreeZ(5));
+    }
+
+    @Test
+    void findAllIntersecting() {
+        Widget inside = repository.save(area(10, 10, 5, 5, 3));
+        Widget crossing = repository.save(area(-20, 0, 40, 2, 1));
+        Widget touching = repository.save(area(20, 20, 5, 5, 2));
+        Widget huge = repository.save(area(-100_000, -100_000, 200_000, 200_000, 0));
+        repository.save(area(1000, 1000, 5, 5, 4));
+
+        List<Widget> found = repository.findAllIntersecting(0, 0, 20, 20);
+
+        assertEquals(List.of(huge.getId(), crossing.getId(), inside.getId()), found.stream().map(Widget::getId).toList());
+        assertFalse(found.stream().anyMatch(widget -> widget.getId().equals(touching.getId())));
+    }
+
+    @Test
+    void findAllIntersecting_widestWidgetAtTheWindowEdge() {
+        Widget reaching = repository.save(area(-1000, 0, 1001, 10, 1));
+        repository.save(area(-1000, 20, 1000, 10, 2));
+        Widget leftmost = repository.save(area(Integer.MIN_VALUE, 0, 5, 5, 3));
+
+        assertEquals(List.of(reaching.getId()),
+            repository.findAllIntersecting(0, 0, 10, 30).stream().map(Widget::getId).toList());
+        assertEquals(List.of(leftmost.getId()),
+            repository.findAllIntersecting(Integer.MIN_VALUE, 0, Integer.MIN_VALUE + 1, 5).stream().map(Widget::getId).toList());
+        assertEquals(reaching.getId(), repository.findTopmostAt(0, 5).orElseThrow().getId());
+        assertTrue(repository.findTopmostAt(0, 25).isEmpty());
+    }
+
+    @Test
+    void findTopmostAt() {
+        Widget bottom = repository.save(area(0, 0, 100, 100, 1));
+        Widget top = repository.save(area(40, 40, 20, 20, 5));
+        Widget huge = repository.save(area(-100_000, -100_000, 200_000, 200_000, -1));
+
+        assertEquals(top.getId(), repository.findTopmostAt(50, 50).orElseThrow().getId());
+        assertEquals(bottom.getId(), repository.findTopmostAt(60, 60).orElseThrow().getId());
+        assertEquals(huge.getId(), repository.findTopmostAt(100, 0).orElseThrow().getId());
+        assertTrue(repository.findTopmostAt(100_000, 0).isEmpty());
+    }
+
+    @Test
+    void shiftZ() {
+        Widget widget1 = repository.save(newWidget(1));
+        Widget widget2 = repository.save(newWidget(2));
+        Widget widget3 = repository.save(newWidget(3));
+        Widget widget5 = repository.save(newWidget(5));
+
+        assertEquals(2, repository.shiftZ(2, 4));
+
+        assertEquals(1, repository.findById(widget1.getId()).orElseThrow().getZ());
+        Widget shifted2 = repository.findById(widget2.getId()).orElseThrow();
+        assertEquals(3, shifted2.getZ());
+        assertEquals(widget2.getVersion() + 1, shifted2.getVersion());
+        assertEquals(4, repository.findById(widget3.getId()).orElseThrow().getZ());
+        assertEquals(5, repository.findById(widget5.getId()).orElseThrow().getZ());
+        assertTrue(repository.findByZ(2).isEmpty());
+        assertEquals(widget3.getId(), repository.findByZ(4).orElseThrow().getId());
+    }
+
     @Test
     void save_concurrent_success() throws Exception {
         int threadCount = 10;
@@ -0,0 +1,57 @@
+package com.miro.sample.board.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LongIntHashMapTest {
+
+    @Test
+    void randomOperations_matchHashMap() {
+        Random random = new Random(42);
+        Map<Long, Integer> expected = new HashMap<>();
+        LongIntHashMap map = new LongIntHashMap();
+        for (int i = 0; i < 100_000; i++) {
+            long key = 1 + random.nextInt(5000);
+            int value = random.nextInt(1_000_000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.getOrDefault(key, LongIntHashMap.NO_VALUE), map.remove(key));
+                expected.remove(key);
+            } else {
+                assertEquals(expected.getOrDefault(key, LongIntHashMap.NO_VALUE), map.put(key, value));
+                expected.put(key, value);
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (long key = 1; key <= 5000; key++) {
+            assertEquals(expected.getOrDefault(key, LongIntHashMap.NO_VALUE), map.get(key));
+        }
+    }
+
+    @Test
+    void clear() {
+        LongIntHashMap map = new LongIntHashMap();
+        for (long key = 1; key <= 100; key++) {
+            map.put(key, (int) key);
+        }
+
+        map.clear();
+
+        assertEquals(0, map.size());
+        assertEquals(LongIntHashMap.NO_VALUE, map.get(5L));
+    }
+
+    @Test
+    void put_notPositiveKey_fail() {
+        LongIntHashMap map = new LongIntHashMap();
+
+        assertThrows(IllegalArgumentException.class, () -> map.put(0L, 1));
+        assertEquals(LongIntHashMap.NO_VALUE, map.get(0L));
+    }
+}
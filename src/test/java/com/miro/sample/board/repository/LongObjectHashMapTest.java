@@ -0,0 +1,91 @@
+package com.miro.sample.board.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongObjectHashMapTest {
+
+    @Test
+    void randomOperations_matchHashMap() {
+        Random random = new Random(42);
+        Map<Long, String> expected = new HashMap<>();
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+        for (int i = 0; i < 100_000; i++) {
+            long key = 1 + random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                String value = String.valueOf(i);
+                assertEquals(expected.put(key, value), map.put(key, value));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        assertEquals(new HashSet<>(expected.values()), new HashSet<>(map.values()));
+        for (long key = 1; key <= 5000; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+
+    @Test
+    void ensureCapacity_entriesKept() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+        for (long key = 1; key <= 100; key++) {
+            map.put(key, String.valueOf(key));
+        }
+
+        map.ensureCapacity(10_000);
+        for (long key = 101; key <= 10_000; key++) {
+            map.put(key, String.valueOf(key));
+        }
+
+        assertEquals(10_000, map.size());
+        for (long key = 1; key <= 10_000; key++) {
+            assertEquals(String.valueOf(key), map.get(key));
+        }
+    }
+
+    @Test
+    void get_concurrentWithWrites_seesStableKeys() throws Exception {
+        LongObjectHashMap<Long> map = new LongObjectHashMap<>();
+        for (long key = 1; key <= 1000; key++) {
+            map.put(key, key);
+        }
+        AtomicBoolean writing = new AtomicBoolean(true);
+        CompletableFuture<Void> reader = CompletableFuture.runAsync(() -> {
+            while (writing.get()) {
+                for (long key = 1; key <= 1000; key++) {
+                    assertEquals(key, map.get(key));
+                }
+            }
+        });
+
+        for (long key = 1001; key <= 200_000; key++) {
+            map.put(key, key);
+            if (key % 2 == 0) {
+                map.remove(key);
+            }
+        }
+        writing.set(false);
+
+        reader.get(10, TimeUnit.SECONDS);
+        assertEquals(1000 + 99_500, map.size());
+    }
+
+    @Test
+    void put_notPositiveKey_fail() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+
+        assertThrows(IllegalArgumentException.class, () -> map.put(-1L, "value"));
+        assertNull(map.get(0L));
+    }
+}
@@ -7,6 +7,8 @@ import org.apache.commons.collections4.IterableUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
@@ -17,6 +19,7 @@ import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -60,6 +63,40 @@ class MemoryWidgetRepositoryTest implements WidgetBoardTest {
         assertEquals(1000, IterableUtils.size(repository.findAll()));
     }
 
+    @Test
+    void update_concurrentMovesInPlace_allPublished() throws Exception {
+        // the widgets share their cells, and every move leaves a cell and enters the next one
+        int moves = 200;
+        int step = 256;
+        List<Widget> widgets = new ArrayList<>();
+        for (int z = 1; z <= 10; z++) {
+            widgets.add(repository.save(area(0, 0, 10, 10, z)));
+        }
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (Widget widget : widgets) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                Widget moved = new Widget(widget);
+                for (int move = 1; move <= moves; move++) {
+                    moved.setX(move * step);
+                    moved = new Widget(repository.save(moved));
+                }
+            }));
+        }
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[]{})).get(10, TimeUnit.SECONDS);
+        List<Widget> stored = new ArrayList<>();
+        for (Widget widget : widgets) {
+            Widget moved = repository.findByZ(widget.getZ()).orElseThrow();
+            assertEquals(moves * step, moved.getX());
+            assertEquals((long) moves, moved.getVersion());
+            assertEquals(moved, repository.findById(widget.getId()).orElseThrow());
+            stored.add(moved);
+        }
+        assertEquals(stored, repository.findAllIntersecting(moves * step, 0, moves * step + 10, 10));
+        assertEquals(stored.get(stored.size() - 1), repository.findTopmostAt(moves * step + 5, 5).orElseThrow());
+        assertTrue(repository.findAllIntersecting(0, 0, moves * step, 10).isEmpty());
+    }
+
     @Test
     void update_success() {
         Integer updatedZ = 7;
@@ -99,6 +136,18 @@ class MemoryWidgetRepositoryTest implements WidgetBoardTest {
         }
     }
 
+    @Test
+    void saveAll_newWidgets_onePublish() {
+        MemoryWidgetRepository memoryRepository = (MemoryWidgetRepository) repository;
+        long revision = memoryRepository.snapshot().getRevision();
+
+        repository.saveAll(List.of(newWidget(1), newWidget(2), newWidget(3)));
+
+        assertEquals(revision + 1, memoryRepository.snapshot().getRevision());
+        assertEquals(3, memoryRepository.snapshot().size());
+        assertEquals(3, repository.findMaxZ());
+    }
+
     @Test
     void findByZ() {
         List<Widget> widgets = List.of(newWidget(), newWidget(), newWidget());
@@ -207,6 +256,11 @@ class MemoryWidgetRepositoryTest implements WidgetBoardTest {
         assertFalse(all.iterator().hasNext());
     }
 
+    @Test
+    void findMaxZ_empty_null() {
+        assertNull(repository.findMaxZ());
+    }
+
     @Test
     void findMaxZ() {
         int max = 30;
@@ -217,6 +271,173 @@ class MemoryWidgetRepositoryTest implements WidgetBoardTest {
         assertEquals(max, maxZSaved);
     }
 
+    @Test
+    void findAllPageable() {
+        for (int i = 24; i >= 0; i--) {
+            repository.save(newWidget(i * 2));
+        }
+
+        Page<Widget> page = repository.findAll(PageRequest.of(1, 10));
+
+        assertEquals(25, page.getTotalElements());
+        assertEquals(3, page.getTotalPages());
+        assertEquals(10, page.getContent().size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals((10 + i) * 2, page.getContent().get(i).getZ());
+        }
+        assertEquals(5, repository.findAll(PageRequest.of(2, 10)).getContent().size());
+        assertTrue(repository.findAll(PageRequest.of(3, 10)).getContent().isEmpty());
+    }
+
+    @Test
+    void findPageAfter() {
+        Widget widget1 = repository.save(newWidget(1));
+        Widget widget2 = repository.save(newWidget(2));
+        Widget widget3 = repository.save(newWidget(5));
+
+        assertEquals(List.of(widget1, widget2), repository.findPageAfter(Integer.MIN_VALUE, Long.MIN_VALUE, 2));
+        assertEquals(List.of(widget3), repository.findPageAfter(widget2.getZ(), widget2.getId(), 2));
+        assertTrue(repository.findPageAfter(widget3.getZ(), widget3.getId(), 2).isEmpty());
+    }
+
+    @Test
+    void snapshot_notChangedByLaterShift() {
+        MemoryWidgetRepository memoryRepository = (MemoryWidgetRepository) repository;
+        Widget widget1 = repository.save(newWidget(1));
+        Widget widget2 = repository.save(newWidget(2));
+        BoardSnapshot before = memoryRepository.snapshot();
+
+        repository.shiftZ(1, 3);
+
+        assertEquals(List.of(widget1.getId(), widget2.getId()), IterableUtils.toList(before).stream().map(Widget::getId).toList());
+        assertEquals(List.of(1, 2), IterableUtils.toList(before).stream().map(Widget::getZ).toList());
+        assertEquals(List.of(2, 3), IterableUtils.toList(memoryRepository.snapshot()).stream().map(Widget::getZ).toList());
+        assertTrue(memoryRepository.snapshot().getRevision() > before.getRevision());
+    }
+
+    @Test
+    void findFirstFreeZ() {
+        List<Widget> widgets = List.of(newWidget(1), newWidget(2), newWidget(3), newWidget(5));
+        IterableUtils.toList(repository.saveAll(widgets));
+
+        assertEquals(Optional.of(4), repository.findFirstFreeZ(1));
+        assertEquals(Optional.of(4), repository.findFirstFreeZ(3));
+        assertEquals(Optional.of(6), repository.findFirstFreeZ(5));
+        assertEquals(Optional.of(7), repository.findFirstFreeZ(7));
+    }
+
+    @Test
+    void findFirstFreeZ_maxZOccupied_empty() {
+        List<Widget> widgets = List.of(newWidget(Integer.MAX_VALUE - 1), newWidget(Integer.MAX_VALUE));
+        IterableUtils.toList(repository.saveAll(widgets));
+
+        assertTrue(repository.findFirstFreeZ(Integer.MAX_VALUE - 1).isEmpty());
+    }
+
+    @Test
+    void findAllIntersecting() {
+        Widget inside = repository.save(area(10, 10, 5, 5, 3));
+        Widget crossing = repository.save(area(-20, 0, 40, 2, 1));
+        Widget touching = repository.save(area(20, 20, 5, 5, 2));
+        Widget huge = repository.save(area(-100_000, -100_000, 200_000, 200_000, 0));
+        repository.save(area(1000, 1000, 5, 5, 4));
+
+        List<Widget> found = repository.findAllIntersecting(0, 0, 20, 20);
+
+        assertEquals(List.of(huge.getId(), crossing.getId(), inside.getId()), found.stream().map(Widget::getId).toList());
+        assertFalse(found.stream().anyMatch(widget -> widget.getId().equals(touching.getId())));
+    }
+
+    @Test
+    void findAllIntersecting_followsMovesAndDeletes() {
+        Widget widget = repository.save(area(0, 0, 10, 10, 1));
+        widget.setX(500);
+        widget = repository.save(widget);
+
+        assertTrue(repository.findAllIntersecting(0, 0, 10, 10).isEmpty());
+        assertEquals(List.of(widget.getId()), repository.findAllIntersecting(505, 5, 506, 6).stream().map(Widget::getId).toList());
+
+        repository.deleteById(widget.getId());
+        assertTrue(repository.findAllIntersecting(500, 0, 510, 10).isEmpty());
+    }
+
+    @Test
+    void restore_checkpoint_spatialQueriesServed() {
+        Widget bottom = repository.save(area(0, 0, 100, 100, 1));
+        Widget top = repository.save(area(40, 40, 20, 20, 5));
+        Widget huge = repository.save(area(-100_000, -100_000, 200_000, 200_000, -1));
+        MemoryWidgetRepository restored = new MemoryWidgetRepository();
+        restored.save(area(5000, 5000, 10, 10, 7));
+
+        restored.restore(((MemoryWidgetRepository) repository).checkpoint());
+
+        assertEquals(List.of(huge.getId(), bottom.getId(), top.getId()),
+            restored.findAllIntersecting(0, 0, 100, 100).stream().map(Widget::getId).toList());
+        assertEquals(top.getId(), restored.findTopmostAt(50, 50).orElseThrow().getId());
+        assertEquals(huge.getId(), restored.findTopmostAt(5005, 5005).orElseThrow().getId());
+
+        top.setX(1000);
+        restored.save(top);
+        assertEquals(bottom.getId(), restored.findTopmostAt(50, 50).orElseThrow().getId());
+        assertEquals(top.getId(), restored.findTopmostAt(1010, 50).orElseThrow().getId());
+    }
+
+    @Test
+    void findTopmostAt() {
+        Widget bottom = repository.save(area(0, 0, 100, 100, 1));
+        Widget top = repository.save(area(40, 40, 20, 20, 5));
+        Widget huge = repository.save(area(-100_000, -100_000, 200_000, 200_000, -1));
+
+        assertEquals(top.getId(), repository.findTopmostAt(50, 50).orElseThrow().getId());
+        assertEquals(bottom.getId(), repository.findTopmostAt(60, 60).orElseThrow().getId());
+        assertEquals(huge.getId(), repository.findTopmostAt(100, 0).orElseThrow().getId());
+        assertTrue(repository.findTopmostAt(100_000, 0).isEmpty());
+    }
+
+    @Test
+    void shiftZ() {
+        Widget widget1 = repository.save(newWidget(1));
+        Widget widget2 = repository.save(newWidget(2));
+        Widget widget3 = repository.save(newWidget(3));
+        Widget widget5 = repository.save(newWidget(5));
+
+        assertEquals(2, repository.shiftZ(2, 4));
+
+        assertEquals(1, repository.findById(widget1.getId()).orElseThrow().getZ());
+        Widget shifted2 = repository.findById(widget2.getId()).orElseThrow();
+        assertEquals(3, shifted2.getZ());
+        assertEquals(widget2.getVersion() + 1, shifted2.getVersion());
+        assertEquals(4, repository.findById(widget3.getId()).orElseThrow().getZ());
+        assertEquals(5, repository.findById(widget5.getId()).orElseThrow().getZ());
+        assertTrue(repository.findByZ(2).isEmpty());
+        assertEquals(widget3.getId(), repository.findByZ(4).orElseThrow().getId());
+    }
+
+    @Test
+    void shiftZ_headInsert_touchesOnlyTheRunBelowTheFirstGap() {
+        List<Widget> run = new ArrayList<>();
+        for (int z = 1; z <= 1000; z++) {
+            run.add(repository.save(newWidget(z)));
+        }
+        List<Widget> aboveGap = new ArrayList<>();
+        for (int z = 1002; z <= 1100; z++) {
+            aboveGap.add(repository.save(newWidget(z)));
+        }
+
+        Integer freeZ = repository.findFirstFreeZ(1).orElseThrow();
+        assertEquals(1001, freeZ);
+        assertEquals(run.size(), repository.shiftZ(1, freeZ));
+
+        for (Widget widget : run) {
+            Widget shifted = repository.findById(widget.getId()).orElseThrow();
+            assertEquals(widget.getZ() + 1, shifted.getZ());
+            assertEquals(widget.getVersion() + 1, shifted.getVersion());
+        }
+        for (Widget widget : aboveGap) {
+            assertEquals(widget, repository.findById(widget.getId()).orElseThrow());
+        }
+    }
+
     @Test
     void findAllByOrderByZAsc() {
         List<Widget> widgets = List.of(newWidget(1), newWidget(0), newWidget(-1));
@@ -229,4 +450,13 @@ class MemoryWidgetRepositoryTest implements WidgetBoardTest {
             assertEquals(index, next.getZ());
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void streamAllByOrderByZAsc() {
+        repository.saveAll(List.of(newWidget(1), newWidget(0), newWidget(-1)));
+
+        try (Stream<Widget> widgets = repository.streamAllByOrderByZAsc()) {
+            assertEquals(List.of(-1, 0, 1), widgets.map(Widget::getZ).toList());
+        }
+    }
+}
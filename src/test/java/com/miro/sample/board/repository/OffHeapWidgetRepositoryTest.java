@@ -0,0 +1,185 @@
+package com.miro.sample.board.repository;
+
+import com.miro.sample.board.WidgetBoardTest;
+import com.miro.sample.board.model.Widget;
+import org.apache.commons.collections4.IterableUtils;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapWidgetRepositoryTest implements WidgetBoardTest {
+
+    private final WidgetRepository repository = new OffHeapWidgetRepository();
+
+    @Test
+    void save_findById_success() {
+        Widget widget = newWidget(3);
+
+        Widget saved = repository.save(widget);
+
+        assertNotNull(saved.getId());
+        assertEquals(0L, saved.getVersion());
+        Widget found = repository.findById(saved.getId()).orElseThrow();
+        assertNotSame(widget, found);
+        assertEquals(widget, found);
+        assertTrue(repository.existsById(saved.getId()));
+        assertEquals(1, repository.count());
+    }
+
+    @Test
+    void update_movesZ() {
+        Widget widget = repository.save(newWidget(3));
+        widget.setZ(7);
+
+        Widget updated = repository.save(widget);
+
+        assertEquals(1L, updated.getVersion());
+        assertTrue(repository.findByZ(3).isEmpty());
+        assertEquals(widget.getId(), repository.findByZ(7).orElseThrow().getId());
+    }
+
+    @Test
+    void updateCheckOptimisticLock_fail() {
+        Widget widgetLoadedByUser1 = repository.save(newWidget(5));
+        Widget widgetLoadedByUser2 = new Widget(widgetLoadedByUser1);
+        widgetLoadedByUser1.setZ(7);
+        repository.save(widgetLoadedByUser1);
+
+        assertThrows(ObjectOptimisticLockingFailureException.class, () -> repository.save(widgetLoadedByUser2));
+    }
+
+    @Test
+    void deleteById_reusesSlot() {
+        Widget widget1 = repository.save(newWidget(1));
+        Widget widget2 = repository.save(newWidget(2));
+
+        repository.deleteById(widget1.getId());
+        Widget widget3 = repository.save(newWidget(3));
+
+        assertTrue(repository.findById(widget1.getId()).isEmpty());
+        assertTrue(repository.findByZ(1).isEmpty());
+        assertEquals(widget2, repository.findById(widget2.getId()).orElseThrow());
+        assertEquals(widget3, repository.findById(widget3.getId()).orElseThrow());
+        assertEquals(2, repository.count());
+    }
+
+    @Test
+    void shiftZ_findFirstFreeZ() {
+        Widget widget1 = repository.save(newWidget(1));
+        Widget widget2 = repository.save(newWidget(2));
+        repository.save(newWidget(5));
+
+        assertEquals(Optional.of(3), repository.findFirstFreeZ(1));
+        assertEquals(2, repository.shiftZ(1, 3));
+
+        Widget shifted1 = repository.findById(widget1.getId()).orElseThrow();
+        assertEquals(2, shifted1.getZ());
+        assertEquals(widget1.getVersion() + 1, shifted1.getVersion());
+        assertEquals(3, repository.findById(widget2.getId()).orElseThrow().getZ());
+        assertTrue(repository.findByZ(1).isEmpty());
+        assertEquals(5, repository.findMaxZ());
+    }
+
+    @Test
+    void findAllPageable_findPageAfter() {
+        Widget widget1 = repository.save(newWidget(-1));
+        Widget widget2 = repository.save(newWidget(4));
+        Widget widget3 = repository.save(newWidget(9));
+
+        Page<Widget> page = repository.findAll(PageRequest.of(1, 2));
+
+        assertEquals(List.of(widget3), page.getContent());
+        assertEquals(3, page.getTotalElements());
+        assertEquals(List.of(widget1, widget2, widget3), repository.findAll(PageRequest.of(0, Integer.MAX_VALUE)).getContent());
+        assertTrue(repository.findAll(PageRequest.of(1, Integer.MAX_VALUE)).getContent().isEmpty());
+        assertEquals(List.of(widget2, widget3), repository.findPageAfter(widget1.getZ(), widget1.getId(), 5));
+        assertEquals(List.of(widget1, widget2, widget3), IterableUtils.toList(repository.findAllByOrderByZAsc()));
+    }
+
+    @Test
+    void streamAllByOrderByZAsc_acrossPages() {
+        List<Widget> widgets = new ArrayList<>();
+        for (int z = 2500; z > 0; z--) {
+            widgets.add(newWidget(z));
+        }
+        repository.saveAll(widgets);
+
+        try (Stream<Widget> stream = repository.streamAllByOrderByZAsc()) {
+            assertEquals(IntStream.rangeClosed(1, 2500).boxed().toList(), stream.map(Widget::getZ).toList());
+        }
+    }
+
+    @Test
+    void findAllIntersecting_findTopmostAt() {
+        Widget bottom = repository.save(area(0, 0, 100, 100, 1));
+        Widget top = repository.save(area(40, 40, 20, 20, 5));
+        repository.save(area(500, 500, 10, 10, 3));
+
+        assertEquals(List.of(bottom, top), repository.findAllIntersecting(50, 50, 60, 60));
+        assertEquals(top.getId(), repository.findTopmostAt(50, 50).orElseThrow().getId());
+        assertEquals(bottom.getId(), repository.findTopmostAt(10, 10).orElseThrow().getId());
+        assertTrue(repository.findTopmostAt(100, 100).isEmpty());
+    }
+
+    @Test
+    void findAllIntersecting_findTopmostAt_afterMovesAndDeletes_matchScan() {
+        Random random = new Random(42);
+        List<Widget> widgets = new ArrayList<>();
+        for (int z = 1; z <= 500; z++) {
+            int size = random.nextInt(10) == 0 ? 10_000 : 1 + random.nextInt(600);
+            widgets.add(repository.save(area(random.nextInt(4000) - 2000, random.nextInt(4000) - 2000,
+                size, 1 + random.nextInt(600), z)));
+        }
+        for (int i = 0; i < 300; i++) {
+            Widget widget = widgets.get(random.nextInt(widgets.size()));
+            if (random.nextBoolean()) {
+                repository.deleteById(widget.getId());
+                widgets.remove(widget);
+            } else {
+                Widget moved = new Widget(widget);
+                moved.setX(random.nextInt(4000) - 2000);
+                moved.setWidth(1 + random.nextInt(600));
+                widgets.set(widgets.indexOf(widget), repository.save(moved));
+            }
+        }
+        widgets.sort(Comparator.comparing(Widget::getZ));
+
+        for (int i = 0; i < 200; i++) {
+            int x = random.nextInt(5000) - 2500;
+            int y = random.nextInt(5000) - 2500;
+            int x2 = x + 1 + random.nextInt(800);
+            int y2 = y + 1 + random.nextInt(800);
+            assertEquals(widgets.stream().filter(widget -> intersects(widget, x, y, x2, y2)).toList(),
+                repository.findAllIntersecting(x, y, x2, y2));
+            assertEquals(widgets.stream().filter(widget -> intersects(widget, x, y, x + 1, y + 1)).reduce((a, b) -> b),
+                repository.findTopmostAt(x, y));
+        }
+    }
+
+    private static boolean intersects(Widget widget, int x1, int y1, int x2, int y2) {
+        return widget.getX() < x2 && (long) widget.getX() + widget.getWidth() > x1
+            && widget.getY() < y2 && (long) widget.getY() + widget.getHeight() > y1;
+    }
+
+    @Test
+    void deleteAll() {
+        repository.saveAll(List.of(newWidget(1), newWidget(2)));
+
+        repository.deleteAll();
+
+        assertEquals(0, repository.count());
+        assertNull(repository.findMaxZ());
+        assertEquals(1L, repository.save(newWidget(1)).getId());
+    }
+}
@@ -0,0 +1,73 @@
+package com.miro.sample.board.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import com.miro.sample.board.WidgetBoardTest;
+import com.miro.sample.board.model.Widget;
+import org.apache.commons.collections4.IterableUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+@ActiveProfiles("tiered")
+@SpringBootTest
+class TieredWidgetRepositoryTest implements WidgetBoardTest {
+
+    @Autowired
+    private TieredWidgetRepository repository;
+
+    @Autowired
+    private DatabaseWidgetRepository database;
+
+    @BeforeEach
+    void setUp() {
+        repository.deleteAll();
+        repository.flush();
+    }
+
+    @Test
+    void flush_repeatedChanges_lastStateWritten() {
+        Widget widget = repository.save(newWidget(1));
+        for (int x = 1; x <= 5; x++) {
+            widget.setX(x);
+            widget = repository.save(widget);
+        }
+        Widget deleted = repository.save(newWidget(2));
+        repository.deleteById(deleted.getId());
+
+        repository.flush();
+
+        assertEquals(List.of(widget), IterableUtils.toList(database.findAllByOrderByZAsc()));
+    }
+
+    @Test
+    void flush_shift_movedWidgetsWritten() {
+        repository.save(newWidget(1));
+        repository.save(newWidget(2));
+        repository.save(newWidget(7));
+
+        repository.shiftZ(1, 3);
+        repository.flush();
+
+        assertEquals(List.of(2, 3, 7),
+            IterableUtils.toList(database.findAllByOrderByZAsc()).stream().map(Widget::getZ).toList());
+        assertEquals(IterableUtils.toList(repository.findAllByOrderByZAsc()),
+            IterableUtils.toList(database.findAllByOrderByZAsc()));
+    }
+
+    @Test
+    void flush_deleteAll_rowsRemoved() {
+        repository.save(newWidget(1));
+        repository.flush();
+
+        repository.deleteAll();
+        Widget widget = repository.save(newWidget(3));
+        repository.flush();
+
+        assertEquals(List.of(widget), IterableUtils.toList(database.findAllByOrderByZAsc()));
+    }
+}
@@ -0,0 +1,139 @@
+package com.miro.sample.board.repository;
+
+import com.miro.sample.board.WidgetBoardTest;
+import com.miro.sample.board.model.Widget;
+import org.apache.commons.collections4.IterableUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WidgetJournalTest implements WidgetBoardTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<WidgetJournal> journals = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        journals.forEach(WidgetJournal::destroy);
+    }
+
+    @Test
+    void replay_restoresBoard() {
+        MemoryWidgetRepository repository = journaledRepository(WidgetJournal.FsyncPolicy.ALWAYS);
+        repository.deleteAll();
+        Widget widget1 = repository.save(newWidget(1));
+        Widget widget2 = repository.save(newWidget(2));
+        Widget widget3 = repository.save(newWidget(3));
+        widget1.setX(42);
+        repository.save(widget1);
+        repository.shiftZ(1, 4);
+        repository.deleteById(widget2.getId());
+        List<Widget> expected = IterableUtils.toList(repository.findAllByOrderByZAsc());
+        destroyJournals();
+
+        MemoryWidgetRepository restarted = journaledRepository(WidgetJournal.FsyncPolicy.ALWAYS);
+
+        assertEquals(expected, IterableUtils.toList(restarted.findAllByOrderByZAsc()));
+        assertEquals(42, restarted.findById(widget1.getId()).orElseThrow().getX());
+        assertEquals(widget3.getVersion() + 1, restarted.findById(widget3.getId()).orElseThrow().getVersion());
+        assertTrue(restarted.findById(widget2.getId()).isEmpty());
+        assertTrue(restarted.save(newWidget(10)).getId() > widget3.getId());
+    }
+
+    @Test
+    void replay_cutsOffTornRecord() throws IOException {
+        MemoryWidgetRepository repository = journaledRepository(WidgetJournal.FsyncPolicy.OS);
+        repository.deleteAll();
+        Widget widget1 = repository.save(newWidget(1));
+        repository.save(newWidget(2));
+        destroyJournals();
+        Path segment = segments().get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        MemoryWidgetRepository restarted = journaledRepository(WidgetJournal.FsyncPolicy.OS);
+        Widget widget3 = restarted.save(newWidget(3));
+        destroyJournals();
+
+        MemoryWidgetRepository restartedAgain = journaledRepository(WidgetJournal.FsyncPolicy.OS);
+        assertEquals(List.of(widget1.getId(), widget3.getId()),
+            IterableUtils.toList(restartedAgain.findAllByOrderByZAsc()).stream().map(Widget::getId).toList());
+    }
+
+    @Test
+    void append_rollsOverSegments() throws IOException {
+        WidgetJournal journal = journal(WidgetJournal.FsyncPolicy.GROUP, 256);
+        MemoryWidgetRepository repository = new MemoryWidgetRepository(Optional.of(journal), Optional.empty());
+        repository.deleteAll();
+        for (int z = 0; z < 20; z++) {
+            repository.save(newWidget(z));
+        }
+
+        assertTrue(segments().size() > 1);
+        MemoryWidgetRepository restarted = journaledRepository(WidgetJournal.FsyncPolicy.GROUP);
+        assertEquals(20, restarted.count());
+    }
+
+    @Test
+    void deferDurability_writesReturnAndScopeWaitsOnce() {
+        // a group commit a minute away, a write which waited for it would hang the test
+        WidgetJournal journal = new WidgetJournal(directory.toString(), WidgetJournal.FsyncPolicy.GROUP, 60_000, 1 << 20);
+        journals.add(journal);
+        MemoryWidgetRepository repository = new MemoryWidgetRepository(Optional.of(journal), Optional.empty());
+        AtomicBoolean forced = new AtomicBoolean();
+
+        WidgetRepository.DurabilityScope durability = repository.deferDurability();
+        for (int z = 1; z <= 3; z++) {
+            repository.save(newWidget(z));
+        }
+        assertSame(WidgetRepository.DurabilityScope.NONE, repository.deferDurability());
+        assertFalse(forced.get());
+        CompletableFuture.runAsync(() -> {
+            forced.set(true);
+            journal.forceAppended();
+        }, CompletableFuture.delayedExecutor(100, TimeUnit.MILLISECONDS));
+        durability.close();
+
+        assertTrue(forced.get());
+        assertEquals(3, repository.count());
+    }
+
+    private MemoryWidgetRepository journaledRepository(WidgetJournal.FsyncPolicy fsyncPolicy) {
+        return new MemoryWidgetRepository(Optional.of(journal(fsyncPolicy, 1 << 20)), Optional.empty());
+    }
+
+    private WidgetJournal journal(WidgetJournal.FsyncPolicy fsyncPolicy, long segmentSize) {
+        WidgetJournal journal = new WidgetJournal(directory.toString(), fsyncPolicy, 1, segmentSize);
+        journals.add(journal);
+        return journal;
+    }
+
+    private void destroyJournals() {
+        journals.forEach(WidgetJournal::destroy);
+        journals.clear();
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.miro.sample.board.repository;
+
+import com.miro.sample.board.WidgetBoardTest;
+import com.miro.sample.board.model.Widget;
+import org.apache.commons.collections4.IterableUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WidgetSnapshotStoreTest implements WidgetBoardTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<WidgetJournal> journals = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        journals.forEach(WidgetJournal::destroy);
+    }
+
+    @Test
+    void write_load_restoresBoard() {
+        WidgetSnapshotStore store = store(Optional.empty());
+        MemoryWidgetRepository repository = new MemoryWidgetRepository(Optional.empty(), Optional.of(store));
+        repository.deleteAll();
+        for (int z = 0; z < 100; z++) {
+            repository.save(newWidget(z * 3));
+        }
+        Widget moved = new Widget(repository.findByZ(30).orElseThrow());
+        moved.setZ(31);
+        moved = repository.save(moved);
+        store.write(repository.checkpoint());
+        List<Widget> expected = IterableUtils.toList(repository.findAllByOrderByZAsc());
+        long lastId = repository.checkpoint().getLastId();
+
+        MemoryWidgetRepository restarted = new MemoryWidgetRepository(Optional.empty(), Optional.of(store(Optional.empty())));
+
+        assertEquals(expected, IterableUtils.toList(restarted.findAllByOrderByZAsc()));
+        assertEquals(moved.getVersion(), restarted.findById(moved.getId()).orElseThrow().getVersion());
+        assertEquals(Optional.of(32), restarted.findFirstFreeZ(31));
+        assertTrue(restarted.save(newWidget(1000)).getId() > lastId);
+    }
+
+    @Test
+    void write_withJournal_replaysOnlyLaterRecordsAndDeletesOldSegments() throws IOException {
+        WidgetJournal journal = journal(256);
+        WidgetSnapshotStore store = store(Optional.of(journal));
+        MemoryWidgetRepository repository = new MemoryWidgetRepository(Optional.of(journal), Optional.of(store));
+        repository.deleteAll();
+        for (int z = 0; z < 20; z++) {
+            repository.save(newWidget(z));
+        }
+        long segmentsBefore = journalSegments();
+        store.write(repository.checkpoint());
+        repository.shiftZ(0, 20);
+        repository.deleteById(repository.findByZ(5).orElseThrow().getId());
+        List<Widget> expected = IterableUtils.toList(repository.findAllByOrderByZAsc());
+        journal.destroy();
+
+        WidgetJournal restartedJournal = journal(256);
+        MemoryWidgetRepository restarted = new MemoryWidgetRepository(Optional.of(restartedJournal),
+            Optional.of(store(Optional.of(restartedJournal))));
+
+        assertTrue(journalSegments() < segmentsBefore);
+        assertEquals(expected, IterableUtils.toList(restarted.findAllByOrderByZAsc()));
+    }
+
+    @Test
+    void load_wrongChecksum_fail() throws IOException {
+        WidgetSnapshotStore store = store(Optional.empty());
+        MemoryWidgetRepository repository = new MemoryWidgetRepository(Optional.empty(), Optional.of(store));
+        repository.save(newWidget(1));
+        store.write(repository.checkpoint());
+        try (FileChannel channel = FileChannel.open(directory.resolve("board.snapshot"), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3}), 20);
+        }
+
+        assertThrows(IllegalStateException.class, () -> store(Optional.empty()).load());
+    }
+
+    private WidgetSnapshotStore store(Optional<WidgetJournal> journal) {
+        return new WidgetSnapshotStore(directory.toString(), 60_000L, journal);
+    }
+
+    private WidgetJournal journal(long segmentSize) {
+        WidgetJournal journal = new WidgetJournal(directory.resolve("journal").toString(), WidgetJournal.FsyncPolicy.OS, 1,
+            segmentSize);
+        journals.add(journal);
+        return journal;
+    }
+
+    private long journalSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory.resolve("journal"))) {
+            return files.count();
+        }
+    }
+}
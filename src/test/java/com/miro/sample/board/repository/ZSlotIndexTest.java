@@ -0,0 +1,83 @@
+package com.miro.sample.board.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ZSlotIndexTest {
+
+    @Test
+    void randomOperations_matchTreeMap() {
+        Random random = new Random(42);
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        ZSlotIndex index = new ZSlotIndex();
+        for (int i = 0; i < 50_000; i++) {
+            int z = random.nextInt(8000) - 4000;
+            int operation = random.nextInt(10);
+            if (operation < 6) {
+                assertEquals(expected.getOrDefault(z, ZSlotIndex.NO_SLOT), index.put(z, i));
+                expected.put(z, i);
+            } else if (operation < 9) {
+                assertEquals(expected.getOrDefault(z, ZSlotIndex.NO_SLOT), index.remove(z));
+                expected.remove(z);
+            } else {
+                int free = z;
+                while (expected.containsKey(free)) {
+                    free++;
+                }
+                assertEquals(OptionalInt.of(free), index.firstFreeZ(z));
+            }
+        }
+
+        assertEquals(expected.size(), index.size());
+        assertEquals(OptionalInt.of(expected.lastKey()), index.maxZ());
+        List<Integer> zs = new ArrayList<>();
+        index.forEachFrom(Integer.MIN_VALUE, (z, slot) -> {
+            assertEquals(expected.get(z), slot);
+            return zs.add(z);
+        });
+        assertEquals(new ArrayList<>(expected.keySet()), zs);
+    }
+
+    @Test
+    void shift() {
+        ZSlotIndex index = new ZSlotIndex();
+        for (int z = 0; z < 3000; z++) {
+            index.put(z, z);
+        }
+        index.put(5000, 5000);
+        Map<Integer, Integer> moved = new TreeMap<>();
+
+        assertEquals(OptionalInt.of(3000), index.firstFreeZ(10));
+        assertEquals(2990, index.shift(10, 3000, (z, slot) -> moved.put(z, slot) == null));
+
+        assertEquals(2990, moved.size());
+        assertEquals(ZSlotIndex.NO_SLOT, index.get(10));
+        assertEquals(10, index.get(11));
+        assertEquals(2999, index.get(3000));
+        assertEquals(5000, index.get(5000));
+        assertEquals(OptionalInt.of(3001), index.firstFreeZ(11));
+    }
+
+    @Test
+    void forEachFromRank() {
+        ZSlotIndex index = new ZSlotIndex();
+        for (int z = 0; z < 5000; z++) {
+            index.put(z * 2, z);
+        }
+        List<Integer> page = new ArrayList<>();
+
+        index.forEachFromRank(2500, (z, slot) -> page.add(z) && page.size() < 3);
+
+        assertEquals(List.of(5000, 5002, 5004), page);
+        assertTrue(index.firstFreeZ(Integer.MAX_VALUE).isPresent());
+    }
+}
@@ -0,0 +1,105 @@
+package com.miro.sample.board.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.miro.sample.board.WidgetBoardTest;
+import com.miro.sample.board.exceptions.BoardNotDurableException;
+import com.miro.sample.board.model.Widget;
+import jakarta.validation.ConstraintViolationException;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+@SpringBootTest
+class BoardRegistryTest implements WidgetBoardTest {
+
+    @Autowired
+    private BoardRegistry boards;
+
+    @Autowired
+    private AutowireCapableBeanFactory beanFactory;
+
+    @Test
+    void board_ownIdSequenceAndZIndex() {
+        Widget first = boards.board("sequence-a").create(newWidget(1));
+        Widget second = boards.board("sequence-b").create(newWidget(1));
+
+        assertEquals(1L, first.getId());
+        assertEquals(1L, second.getId());
+        assertEquals(1, boards.board("sequence-a").findById(1L).orElseThrow().getZ());
+        assertEquals(1, boards.board("sequence-b").findById(1L).orElseThrow().getZ());
+    }
+
+    @Test
+    void boardToRead_unknownBoard_notCreated() {
+        int size = boards.size();
+
+        assertTrue(boards.boardToRead("unknown").findById(1L).isEmpty());
+        assertEquals(size, boards.size());
+    }
+
+    @Test
+    void board_invalidWidget_validated() {
+        WidgetService board = boards.board("validated");
+
+        assertThrows(ConstraintViolationException.class, () -> board.create(new Widget()));
+    }
+
+    @Test
+    void board_journaled_rejected() {
+        BoardRegistry journaled = new BoardRegistry(beanFactory, true, 0L);
+
+        assertThrows(BoardNotDurableException.class, () -> journaled.board("journaled"));
+        assertTrue(journaled.boardToRead("journaled").findById(1L).isEmpty());
+        assertEquals(0, journaled.size());
+        journaled.destroy();
+    }
+
+    @Test
+    void evictIdle_dropsOnlyEmptyBoardsWithoutSubscribers() throws Exception {
+        BoardRegistry idle = new BoardRegistry(beanFactory, false, 50L);
+        idle.board("filled").create(newWidget(1));
+        Widget emptied = idle.board("emptied").create(newWidget(1));
+        idle.board("emptied").delete(emptied.getId());
+        Widget watchedWidget = idle.board("watched").create(newWidget(1));
+        WidgetChangeFeed.Subscription subscription = idle.subscribe("watched", feed -> feed.subscribe(change -> {
+        }, () -> {
+        }));
+        idle.board("watched").delete(watchedWidget.getId());
+
+        for (int wait = 0; wait < 500 && idle.size() > 2; wait++) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(200);
+
+        assertEquals(2, idle.size());
+        assertTrue(idle.boardToRead("filled").findById(1L).isPresent());
+        subscription.close();
+        idle.destroy();
+    }
+
+    @Test
+    void subscribe_unknownBoard_notCreatedUntilFirstWrite() throws Exception {
+        int size = boards.size();
+        BlockingQueue<WidgetChange> received = new LinkedBlockingQueue<>();
+        WidgetChangeFeed.Subscription subscription = boards.subscribe("subscribed", feed -> feed.subscribe(received::add,
+            () -> {
+            }));
+
+        assertEquals(size, boards.size());
+        boards.board("subscribed").create(newWidget(1));
+
+        WidgetChange created = received.poll(5, TimeUnit.SECONDS);
+        assertEquals(WidgetChange.Type.CREATED, created.getType());
+        assertEquals(1L, created.getRevision());
+        assertEquals(size + 1, boards.size());
+        subscription.close();
+    }
+}
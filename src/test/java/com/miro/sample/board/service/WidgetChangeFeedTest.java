@@ -0,0 +1,182 @@
+package com.miro.sample.board.service;
+
+import com.miro.sample.board.WidgetBoardTest;
+import com.miro.sample.board.model.Widget;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WidgetChangeFeedTest implements WidgetBoardTest {
+
+    @Test
+    void publish_deliversInOrderWithIncreasingRevision() throws Exception {
+        WidgetChangeFeed feed = new WidgetChangeFeed();
+        BlockingQueue<WidgetChange> received = new LinkedBlockingQueue<>();
+        feed.subscribe(received::add, () -> {
+        });
+        Widget widget = newWidget(3);
+        widget.setId(7L);
+
+        feed.shifted(3, 5);
+        feed.created(widget);
+        feed.updated(widget);
+        feed.deleted(7L);
+
+        WidgetChange shifted = received.poll(5, TimeUnit.SECONDS);
+        assertEquals(1L, shifted.getRevision());
+        assertEquals(WidgetChange.Type.SHIFTED, shifted.getType());
+        assertEquals(3, shifted.getFromZ());
+        assertEquals(5, shifted.getToZ());
+        WidgetChange created = received.poll(5, TimeUnit.SECONDS);
+        assertEquals(2L, created.getRevision());
+        assertEquals(WidgetChange.Type.CREATED, created.getType());
+        assertEquals(7L, created.getWidget().getId());
+        assertEquals(3L, received.poll(5, TimeUnit.SECONDS).getRevision());
+        WidgetChange deleted = received.poll(5, TimeUnit.SECONDS);
+        assertEquals(4L, deleted.getRevision());
+        assertEquals(WidgetChange.Type.DELETED, deleted.getType());
+        assertEquals(4L, feed.revision());
+    }
+
+    @Test
+    void publish_slowSubscriber_evictedOthersServed() throws Exception {
+        WidgetChangeFeed feed = new WidgetChangeFeed(2, WidgetChangeFeed.DEFAULT_LOG_SIZE);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch evicted = new CountDownLatch(1);
+        WidgetChangeFeed.Subscription slow = feed.subscribe(change -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, evicted::countDown);
+        BlockingQueue<WidgetChange> received = new LinkedBlockingQueue<>();
+        feed.subscribe(received::add, () -> {
+        });
+
+        for (long id = 1; id <= 20; id++) {
+            feed.deleted(id);
+            while (received.size() < id) {
+                Thread.sleep(1);
+            }
+        }
+
+        assertTrue(evicted.await(5, TimeUnit.SECONDS));
+        assertTrue(slow.isClosed());
+        assertEquals(1, feed.subscribers());
+        assertEquals(20, received.size());
+        release.countDown();
+    }
+
+    @Test
+    void publish_stalledSubscribers_evictedOthersServed() throws Exception {
+        WidgetChangeFeed feed = new WidgetChangeFeed(WidgetChangeFeed.DEFAULT_BUFFER_SIZE, WidgetChangeFeed.DEFAULT_LOG_SIZE, 200L);
+        int stalledCount = Runtime.getRuntime().availableProcessors() + 2;
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch evicted = new CountDownLatch(stalledCount);
+        AtomicInteger interrupted = new AtomicInteger();
+        for (int i = 0; i < stalledCount; i++) {
+            // a write which does not give up when it is interrupted
+            feed.subscribe(change -> {
+                while (release.getCount() > 0) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        interrupted.incrementAndGet();
+                    }
+                }
+            }, evicted::countDown);
+        }
+        BlockingQueue<WidgetChange> received = new LinkedBlockingQueue<>();
+        feed.subscribe(received::add, () -> {
+        });
+
+        feed.deleted(1L);
+
+        assertEquals(1L, received.poll(5, TimeUnit.SECONDS).getRevision());
+        assertTrue(evicted.await(5, TimeUnit.SECONDS));
+        assertEquals(stalledCount, interrupted.get());
+        assertEquals(1, feed.subscribers());
+        release.countDown();
+    }
+
+    @Test
+    void publish_moreThanBatch_deliveredInOrder() throws Exception {
+        WidgetChangeFeed feed = new WidgetChangeFeed();
+        BlockingQueue<WidgetChange> received = new LinkedBlockingQueue<>();
+        feed.subscribe(received::add, () -> {
+        });
+
+        for (long id = 1; id <= 500; id++) {
+            feed.deleted(id);
+        }
+
+        for (long revision = 1; revision <= 500; revision++) {
+            assertEquals(revision, received.poll(5, TimeUnit.SECONDS).getRevision());
+        }
+    }
+
+    @Test
+    void close_stopsDelivery() throws Exception {
+        WidgetChangeFeed feed = new WidgetChangeFeed();
+        BlockingQueue<WidgetChange> received = new LinkedBlockingQueue<>();
+        feed.subscribe(received::add, () -> {
+        }).close();
+
+        feed.deleted(1L);
+
+        assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(0, feed.subscribers());
+    }
+
+    @Test
+    void changesSince_returnsLaterChangesWithTombstones() {
+        WidgetChangeFeed feed = new WidgetChangeFeed();
+        Widget widget = newWidget(1);
+        widget.setId(1L);
+        feed.created(widget);
+        feed.updated(widget);
+        feed.deleted(1L);
+
+        List<WidgetChange> changes = feed.changesSince(feed.epoch(), 1L).orElseThrow();
+
+        assertEquals(2, changes.size());
+        assertEquals(2L, changes.get(0).getRevision());
+        assertEquals(WidgetChange.Type.UPDATED, changes.get(0).getType());
+        assertEquals(WidgetChange.Type.DELETED, changes.get(1).getType());
+        assertEquals(1L, changes.get(1).getId());
+        assertTrue(feed.changesSince(feed.epoch(), 3L).orElseThrow().isEmpty());
+    }
+
+    @Test
+    void changesSince_agedOutOrUnknownRevision_empty() {
+        WidgetChangeFeed feed = new WidgetChangeFeed(WidgetChangeFeed.DEFAULT_BUFFER_SIZE, 2);
+        for (long id = 1; id <= 5; id++) {
+            feed.deleted(id);
+        }
+
+        assertTrue(feed.changesSince(feed.epoch(), 2L).isEmpty());
+        assertEquals(2, feed.changesSince(feed.epoch(), 3L).orElseThrow().size());
+        assertTrue(feed.changesSince(feed.epoch(), 6L).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> feed.changesSince(feed.epoch(), -1L));
+    }
+
+    @Test
+    void changesSince_otherEpoch_empty() {
+        WidgetChangeFeed feed = new WidgetChangeFeed();
+        feed.deleted(1L);
+
+        assertTrue(feed.changesSince(feed.epoch() + 1, 0L).isEmpty());
+        assertEquals(1, feed.changesSince(feed.epoch(), 0L).orElseThrow().size());
+    }
+}
@@ -0,0 +1,100 @@
+package com.miro.sample.board.service;
+
+import com.miro.sample.board.repository.WidgetRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class WidgetMutationSequencerTest {
+
+    private final WidgetMutationSequencer sequencer = new WidgetMutationSequencer(64);
+
+    private int counter;
+
+    @AfterEach
+    void tearDown() {
+        sequencer.destroy();
+    }
+
+    @Test
+    void submit_returnsResult() {
+        assertEquals("done", sequencer.submit(() -> "done"));
+    }
+
+    @Test
+    void submit_rethrowsMutationException() {
+        assertThrows(IllegalStateException.class, () -> sequencer.submit(() -> {
+            throw new IllegalStateException("failed");
+        }));
+
+        assertEquals(1, sequencer.submit(() -> 1));
+    }
+
+    @Test
+    void submit_afterDestroy_rejected() {
+        sequencer.destroy();
+
+        assertThrows(IllegalStateException.class, () -> sequencer.submit(() -> "never applied"));
+    }
+
+    @Test
+    void submit_durabilityAwaitedOncePerBatchBeforeCompletion() {
+        AtomicInteger opened = new AtomicInteger();
+        AtomicInteger closed = new AtomicInteger();
+        WidgetRepository repository = Mockito.mock(WidgetRepository.class);
+        Mockito.when(repository.deferDurability()).thenAnswer(invocation -> {
+            opened.incrementAndGet();
+            return (WidgetRepository.DurabilityScope) closed::incrementAndGet;
+        });
+        sequencer.setRepository(repository);
+
+        assertEquals(1, (int) sequencer.submit(() -> closed.get() + 1));
+
+        assertEquals(1, opened.get());
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    void submit_batchNotDurable_fails() {
+        WidgetRepository repository = Mockito.mock(WidgetRepository.class);
+        Mockito.when(repository.deferDurability()).thenReturn(() -> {
+            throw new IllegalStateException("fsync failed");
+        });
+        sequencer.setRepository(repository);
+
+        assertThrows(IllegalStateException.class, () -> sequencer.submit(() -> "applied"));
+    }
+
+    @Test
+    void submit_concurrent_appliedBySingleWriter() throws Exception {
+        int threadCount = 8;
+        int mutationsPerThread = 1000;
+        Set<Thread> writers = ConcurrentHashMap.newKeySet();
+        List<CompletableFuture<Void>> futures = new ArrayList<>(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                for (int m = 0; m < mutationsPerThread; m++) {
+                    sequencer.submit(() -> {
+                        writers.add(Thread.currentThread());
+                        return ++counter;
+                    });
+                }
+            }));
+        }
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[]{})).get(10, TimeUnit.SECONDS);
+        assertEquals(threadCount * mutationsPerThread, counter);
+        assertEquals(1, writers.size());
+    }
+}
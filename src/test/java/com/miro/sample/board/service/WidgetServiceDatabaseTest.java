@@ -0,0 +1,59 @@
+package com.miro.sample.board.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.miro.sample.board.WidgetBoardTest;
+import com.miro.sample.board.model.Widget;
+import com.miro.sample.board.repository.WidgetRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.apache.commons.collections4.IterableUtils;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+@ActiveProfiles("h2")
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+class WidgetServiceDatabaseTest implements WidgetBoardTest {
+
+    private static final int RUN_LENGTH = 1000;
+
+    @Autowired
+    private WidgetService service;
+
+    @Autowired
+    private WidgetRepository repository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        repository.deleteAll();
+        List<Widget> run = new ArrayList<>(RUN_LENGTH);
+        for (int z = 1; z <= RUN_LENGTH; z++) {
+            run.add(newWidget(z));
+        }
+        service.createAll(run);
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @Test
+    void createWithZ_deepShift_oneCommit() {
+        service.create(newWidget(1));
+
+        assertEquals(1, statistics.getSuccessfulTransactionCount());
+        List<Widget> board = IterableUtils.toList(repository.findAllByOrderByZAsc());
+        assertEquals(RUN_LENGTH + 1, board.size());
+        assertEquals(RUN_LENGTH + 1, board.get(RUN_LENGTH).getZ());
+    }
+}
@@ -2,27 +2,38 @@ package com.miro.sample.board.service;
 
 import com.miro.sample.board.WidgetBoardTest;
 import com.miro.sample.board.exceptions.NotFoundException;
+import com.miro.sample.board.exceptions.RevisionExpiredException;
 import com.miro.sample.board.model.Widget;
 import com.miro.sample.board.repository.WidgetRepository;
 import jakarta.validation.ConstraintViolationException;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataAccessResourceFailureException;
 import org.springframework.data.domain.Pageable;
 import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -35,6 +46,11 @@ class WidgetServiceTest implements WidgetBoardTest {
     @Autowired
     private WidgetService service;
 
+    @BeforeEach
+    void setup() {
+        Mockito.when(repository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+    }
+
     @Test
     void create_success() {
         Widget widget = newWidget();
@@ -44,6 +60,22 @@ class WidgetServiceTest implements WidgetBoardTest {
         assertNotNull(service.create(widget));
     }
 
+    @Test
+    void create_repositoryNotTransactional_noTransaction() {
+        AtomicBoolean inTransaction = new AtomicBoolean(true);
+        Mockito.when(repository.save(any())).thenAnswer(invocation -> {
+            inTransaction.set(TransactionSynchronizationManager.isActualTransactionActive());
+            return invocation.getArgument(0);
+        });
+
+        service.create(newWidget());
+        assertFalse(inTransaction.get());
+
+        Mockito.when(repository.isTransactional()).thenReturn(true);
+        service.create(newWidget());
+        assertTrue(inTransaction.get());
+    }
+
     @Test
     void createWithZ_zIndexOverflow_fail() {
         int zIndex = Integer.MAX_VALUE;
@@ -132,7 +164,7 @@ class WidgetServiceTest implements WidgetBoardTest {
         Mockito.doReturn(Optional.of(widget4)).when(repository).findByZ(4);
         Mockito.doReturn(Optional.of(widget5)).when(repository).findByZ(5);
         Mockito.doReturn(Optional.of(widget6)).when(repository).findByZ(6);
-
+        Mockito.doReturn(Optional.of(7)).when(repository).findFirstFreeZ(any());
 
         List<Widget> widgetList = List.of(widget1, widget2, widget3, widget4, widget5, widget6);
 
@@ -151,7 +183,198 @@ class WidgetServiceTest implements WidgetBoardTest {
         }
 
         CompletableFuture.allOf(futures.toArray(new CompletableFuture[]{})).get(5, TimeUnit.SECONDS);
-        verify(repository, times(27)).save(any());
+        verify(repository, times(6)).save(any());
+        verify(repository, times(6)).shiftZ(any(), eq(7));
+    }
+
+    @Test
+    void createWithZ_shiftOnlyOccupiedRun_success() {
+        Widget widget2 = newWidget(2);
+        widget2.setId(2L);
+        Widget widget3 = newWidget(3);
+        widget3.setId(3L);
+        Mockito.doReturn(Optional.of(widget2)).when(repository).findByZ(2);
+        Mockito.doReturn(Optional.of(widget3)).when(repository).findByZ(3);
+        Mockito.doReturn(Optional.of(4)).when(repository).findFirstFreeZ(2);
+
+        service.create(newWidget(2));
+
+        verify(repository, times(1)).shiftZ(2, 4);
+        verify(repository, times(1)).save(any());
+    }
+
+    @Test
+    void createWithZ_publishesShiftThenCreate() throws Exception {
+        Widget occupant = newWidget(2);
+        occupant.setId(2L);
+        Widget created = newWidget(2);
+        created.setId(9L);
+        Mockito.doReturn(Optional.of(occupant)).when(repository).findByZ(2);
+        Mockito.doReturn(Optional.of(3)).when(repository).findFirstFreeZ(2);
+        Mockito.doReturn(created).when(repository).save(any());
+        BlockingQueue<WidgetChange> changes = new LinkedBlockingQueue<>();
+        WidgetChangeFeed.Subscription subscription = service.getChangeFeed().subscribe(changes::add, () -> {
+        });
+
+        try {
+            service.create(newWidget(2));
+
+            WidgetChange shifted = changes.poll(5, TimeUnit.SECONDS);
+            assertEquals(WidgetChange.Type.SHIFTED, shifted.getType());
+            assertEquals(2, shifted.getFromZ());
+            assertEquals(3, shifted.getToZ());
+            WidgetChange inserted = changes.poll(5, TimeUnit.SECONDS);
+            assertEquals(WidgetChange.Type.CREATED, inserted.getType());
+            assertEquals(9L, inserted.getId());
+            assertEquals(shifted.getRevision() + 1, inserted.getRevision());
+        } finally {
+            subscription.close();
+        }
+    }
+
+    @Test
+    void findChangesSince_catchesUpWithTombstone() {
+        long since = service.getChangeFeed().revision();
+        Widget widget = newWidget();
+        widget.setId(4L);
+        service.create(widget);
+        service.delete(4L);
+
+        List<WidgetChange> changes = service.findChangesSince(service.getChangeFeed().epoch(), since);
+
+        assertEquals(2, changes.size());
+        assertEquals(WidgetChange.Type.CREATED, changes.get(0).getType());
+        assertEquals(WidgetChange.Type.DELETED, changes.get(1).getType());
+        assertEquals(4L, changes.get(1).getId());
+    }
+
+    @Test
+    void findChangesSince_unknownRevision_fail() {
+        long ahead = service.getChangeFeed().revision() + 1;
+
+        assertThrows(RevisionExpiredException.class,
+            () -> service.findChangesSince(service.getChangeFeed().epoch(), ahead));
+    }
+
+    @Test
+    void findChangesSince_otherEpoch_fail() {
+        long epoch = service.getChangeFeed().epoch() + 1;
+
+        assertThrows(RevisionExpiredException.class, () -> service.findChangesSince(epoch, 0L));
+    }
+
+    @Test
+    void createWithZ_noFreeZ_fail() {
+        Widget widget = newWidget(5);
+        widget.setId(5L);
+        Mockito.doReturn(Optional.of(widget)).when(repository).findByZ(5);
+        Mockito.doReturn(Optional.empty()).when(repository).findFirstFreeZ(5);
+
+        assertThrows(ArithmeticException.class, () -> service.create(newWidget(5)));
+    }
+
+    @Test
+    void createAll_aboveBoard_oneBulkInsert() {
+        Widget withoutZ = newWidget();
+        withoutZ.setZ(null);
+        List<Widget> widgets = List.of(withoutZ, newWidget(20), newWidget());
+        widgets.get(2).setZ(null);
+        Mockito.doReturn(10).when(repository).findMaxZ();
+        Mockito.doReturn(widgets).when(repository).saveAll(any());
+
+        service.createAll(widgets);
+
+        verify(repository, times(1)).saveAll(widgets);
+        verify(repository, never()).save(any());
+        verify(repository, never()).shiftZ(any(), any());
+        assertEquals(List.of(11, 20, 21), widgets.stream().map(Widget::getZ).toList());
+    }
+
+    @Test
+    void createAll_emptyBoardNonPositiveZ_oneBulkInsert() {
+        List<Widget> widgets = List.of(newWidget(-5), newWidget(0));
+        Mockito.doReturn(null).when(repository).findMaxZ();
+        Mockito.doReturn(widgets).when(repository).saveAll(any());
+
+        service.createAll(widgets);
+
+        verify(repository, times(1)).saveAll(widgets);
+        verify(repository, never()).save(any());
+    }
+
+    @Test
+    void createWithoutZ_emptyBoard_onTop() {
+        Widget widget = newWidget();
+        widget.setZ(null);
+        Mockito.doReturn(null).when(repository).findMaxZ();
+
+        assertEquals(1, service.create(widget).getZ());
+    }
+
+    @Test
+    void createAll_collidingZ_oneByOne() {
+        Mockito.doReturn(10).when(repository).findMaxZ();
+        Mockito.doReturn(Optional.of(newWidget(5))).when(repository).findByZ(5);
+        Mockito.doReturn(Optional.of(11)).when(repository).findFirstFreeZ(5);
+
+        service.createAll(List.of(newWidget(5), newWidget(15)));
+
+        verify(repository, never()).saveAll(any());
+        verify(repository, times(2)).save(any());
+        verify(repository, times(1)).shiftZ(5, 11);
+    }
+
+    @Test
+    void applyAll_createRunAndMissingDelete_perItemResults() {
+        Widget first = newWidget();
+        first.setZ(null);
+        Widget second = newWidget();
+        second.setZ(null);
+        Mockito.doReturn(10).when(repository).findMaxZ();
+        Mockito.doReturn(List.of(first, second)).when(repository).saveAll(any());
+        Mockito.doReturn(false).when(repository).existsById(7L);
+
+        List<WidgetOperationResult> results = service.applyAll(List.of(
+            WidgetOperation.create(first), WidgetOperation.create(second), WidgetOperation.delete(7L)));
+
+        verify(repository, times(1)).saveAll(any());
+        verify(repository, never()).deleteById(any());
+        assertEquals(List.of(WidgetOperationResult.Outcome.CREATED, WidgetOperationResult.Outcome.CREATED,
+            WidgetOperationResult.Outcome.NOT_FOUND), results.stream().map(WidgetOperationResult::getOutcome).toList());
+        assertEquals(List.of(11, 12), List.of(first.getZ(), second.getZ()));
+    }
+
+    @Test
+    void applyAll_staleUpdate_conflictAndOthersApplied() {
+        Widget stored = newWidget(3);
+        stored.setId(1L);
+        stored.setVersion(2L);
+        Widget stale = newWidget(3);
+        stale.setVersion(1L);
+        Mockito.doReturn(Optional.of(stored)).when(repository).findById(1L);
+        Mockito.doReturn(true).when(repository).existsById(2L);
+
+        List<WidgetOperationResult> results = service.applyAll(List.of(
+            WidgetOperation.update(1L, stale), WidgetOperation.delete(2L)));
+
+        assertEquals(WidgetOperationResult.Outcome.CONFLICT, results.get(0).getOutcome());
+        assertEquals(WidgetOperationResult.Outcome.DELETED, results.get(1).getOutcome());
+        verify(repository, times(1)).deleteById(2L);
+    }
+
+    @Test
+    void applyAll_storageFailure_failedAndOthersApplied() {
+        Mockito.doReturn(true).when(repository).existsById(1L);
+        Mockito.doReturn(true).when(repository).existsById(2L);
+        Mockito.doThrow(new DataAccessResourceFailureException("disk full")).when(repository).deleteById(1L);
+
+        List<WidgetOperationResult> results = service.applyAll(List.of(
+            WidgetOperation.delete(1L), WidgetOperation.delete(2L)));
+
+        assertEquals(List.of(WidgetOperationResult.Outcome.FAILED, WidgetOperationResult.Outcome.DELETED),
+            results.stream().map(WidgetOperationResult::getOutcome).toList());
+        assertEquals("disk full", results.get(0).getMessage());
+        verify(repository, times(1)).deleteById(2L);
     }
 
     @Test
@@ -211,6 +434,20 @@ class WidgetServiceTest implements WidgetBoardTest {
         assertEquals(pageSize, argument.getValue().getPageSize());
     }
 
+    @Test
+    void exportAll_visitsInZOrderAndClosesStream() {
+        Widget first = newWidget(1);
+        Widget second = newWidget(2);
+        AtomicBoolean closed = new AtomicBoolean();
+        Mockito.when(repository.streamAllByOrderByZAsc()).thenReturn(Stream.of(first, second).onClose(() -> closed.set(true)));
+
+        List<Widget> visited = new ArrayList<>();
+        service.exportAll(visited::add);
+
+        assertEquals(List.of(first, second), visited);
+        assertTrue(closed.get());
+    }
+
 
     @Test
     void update_success() {
@@ -228,6 +465,53 @@ class WidgetServiceTest implements WidgetBoardTest {
         assertEquals(updateId, updated.getId());
     }
 
+    @Test
+    void update_sameZ_noShifting_success() {
+        Long id = 10L;
+        Widget widget = newWidget(3);
+        widget.setId(id);
+        widget.setVersion(0L);
+        Mockito.doReturn(Optional.of(widget)).when(repository).findById(id);
+        Mockito.doReturn(widget).when(repository).save(any());
+
+        service.update(id, new Widget(widget));
+
+        verify(repository, never()).findFirstFreeZ(any());
+        verify(repository, never()).shiftZ(any(), any());
+    }
+
+    @Test
+    void update_concurrentMovesOfDifferentWidgets_runInParallel() throws Exception {
+        Widget widget1 = newWidget(1);
+        widget1.setId(1L);
+        widget1.setVersion(0L);
+        Widget widget2 = newWidget(2);
+        widget2.setId(2L);
+        widget2.setVersion(0L);
+        Mockito.doReturn(Optional.of(widget1)).when(repository).findById(1L);
+        Mockito.doReturn(Optional.of(widget2)).when(repository).findById(2L);
+        CountDownLatch bothSaving = new CountDownLatch(2);
+        Mockito.doAnswer(invocation -> {
+            bothSaving.countDown();
+            assertTrue(bothSaving.await(5, TimeUnit.SECONDS));
+            return invocation.getArgument(0);
+        }).when(repository).save(any());
+
+        CompletableFuture<Widget> move1 = CompletableFuture.supplyAsync(() -> service.update(1L, new Widget(widget1)));
+        CompletableFuture<Widget> move2 = CompletableFuture.supplyAsync(() -> service.update(2L, new Widget(widget2)));
+
+        CompletableFuture.allOf(move1, move2).get(5, TimeUnit.SECONDS);
+        assertEquals(0, bothSaving.getCount());
+    }
+
+    @Test
+    void findInArea_emptyArea_noQuery() {
+        assertTrue(service.findInArea(10, 0, 10, 20).isEmpty());
+        assertTrue(service.findInArea(0, 20, 10, 0).isEmpty());
+
+        verify(repository, never()).findAllIntersecting(any(), any(), any(), any());
+    }
+
     @Test
     void update_idNotFound_fail() {
         Long updateId = 10L;